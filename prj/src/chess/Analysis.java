@@ -0,0 +1,174 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import chess.State.GameOverReason;
+import games.Move;
+
+/**
+ * The result of one {@link AnalysisService.Job}: the best moves of the position with their scores
+ * for the player to move, best first.
+ */
+public final class Analysis {
+
+	public enum Status {
+		/** searched to the depth or for the time of the job */
+		COMPLETED,
+		/** cancelled before or while it was searched, no lines */
+		CANCELLED,
+		/** the search failed, see {@link Analysis#getError()} */
+		FAILED,
+	}
+
+	/** one of the best moves and the line of play expected after it */
+	public static final class Line {
+		private final int move;
+		private final int score;
+		private final List<String> pv;
+
+		Line(Search.Line line) {
+			move = line.move;
+			score = line.score;
+			List<String> res = new ArrayList<String>(line.pv.length);
+			for (int m : line.pv) {
+				res.add(Moves.toString(m));
+			}
+			pv = Collections.unmodifiableList(res);
+		}
+
+		public Move getMove() {
+			return Moves.toMove(move);
+		}
+
+		/** @return the piece a pawn is promoted to, null if the move is no promotion */
+		public PieceKind getPromotion() {
+			return Moves.isPromotion(move) ? Board.pieceKind(Moves.promotion(move)) : null;
+		}
+
+		/** @return the move in coordinate notation, e.g. e2e4 or e7e8q */
+		public String getMoveName() {
+			return Moves.toString(move);
+		}
+
+		/** @return centipawns for the player to move, or a bound beyond +-30000 for mates */
+		public int getScore() {
+			return score;
+		}
+
+		public boolean isMate() {
+			return Math.abs(score) >= Search.MATE_BOUND;
+		}
+
+		/** @return the moves until mate, negative if the player to move gets mated, 0 if it's no mate */
+		public int getMateIn() {
+			if (!isMate()) {
+				return 0;
+			}
+			int moves = (Search.MATE - Math.abs(score) + 1) / 2;
+			return score > 0 ? moves : -moves;
+		}
+
+		/** @return the principal variation in coordinate notation, starting with this move */
+		public List<String> getPv() {
+			return pv;
+		}
+
+		@Override
+		public String toString() {
+			String value = isMate() ? "mate " + getMateIn() : String.format("%+.2f", score / 100.0);
+			StringBuilder res = new StringBuilder(getMoveName()).append(' ').append(value).append(" (");
+			for (int i = 0; i < pv.size(); i++) {
+				res.append(i == 0 ? "" : " ").append(pv.get(i));
+			}
+			return res.append(')').toString();
+		}
+	}
+
+	private final String id;
+	private final String fen;
+	private final Status status;
+	private final GameOverReason gameOver;
+	private final int depth;
+	private final long nodes;
+	private final long millis;
+	private final List<Line> lines;
+	private final Throwable error;
+
+	Analysis(String id, String fen, Status status, GameOverReason gameOver, int depth, long nodes, long millis,
+			Search.Line[] lines, Throwable error) {
+		this.id = id;
+		this.fen = fen;
+		this.status = status;
+		this.gameOver = gameOver;
+		this.depth = depth;
+		this.nodes = nodes;
+		this.millis = millis;
+		List<Line> res = new ArrayList<Line>();
+		if (lines != null) {
+			for (Search.Line l : lines) {
+				res.add(new Line(l));
+			}
+		}
+		this.lines = Collections.unmodifiableList(res);
+		this.error = error;
+	}
+
+	/** the id given to the job */
+	public String getId() {
+		return id;
+	}
+
+	public String getFen() {
+		return fen;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/** @return why the game is already over in the position, null if there are moves to analyse */
+	public GameOverReason getGameOverReason() {
+		return gameOver;
+	}
+
+	/** @return the depth of the last complete iteration, in plies */
+	public int getDepth() {
+		return depth;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	/** @return the best moves, best first; empty if the game is over or the job didn't complete */
+	public List<Line> getLines() {
+		return lines;
+	}
+
+	public Throwable getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder res = new StringBuilder();
+		res.append(id).append(' ').append(status).append(" depth ").append(depth).append(" nodes ").append(nodes)
+				.append(' ').append(millis).append(" ms");
+		if (gameOver != null) {
+			res.append(' ').append(gameOver);
+		}
+		if (error != null) {
+			res.append(' ').append(error);
+		}
+		for (int i = 0; i < lines.size(); i++) {
+			res.append("\n  ").append(i + 1).append(". ").append(lines.get(i));
+		}
+		return res.toString();
+	}
+}
@@ -0,0 +1,347 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import chess.Analysis.Status;
+
+/**
+ * Multi-PV analysis of many positions on a fixed number of worker threads.
+ *
+ * At most maxPending jobs are queued or running at a time: {@link #submit(Job)} blocks until one
+ * of them is done, so a producer can't run ahead of the workers. Every job has its own depth and
+ * time budget, counted from the moment a worker starts it, and can be cancelled through its Future
+ * (or all of a batch through {@link Results#cancel()}).
+ * {@link #analyze(Iterable)} streams the results of a batch in the order they are done.
+ *
+ * usage: java chess.AnalysisService [-threads T] [-pending P] [-multipv N] [-depth D] [-millis M] &lt; positions
+ *        with one FEN per line
+ */
+public final class AnalysisService implements Closeable {
+
+	/** deepest iteration of a job limited by time only */
+	static final int MAX_DEPTH = 64;
+
+	/** a position to analyse and the budget to do it with */
+	public static final class Job {
+		final String id;
+		final Board board;
+		final int multiPv;
+		final int maxDepth;
+		final long maxMillis;
+
+		/**
+		 * @param multiPv - how many of the best moves to report
+		 * @param maxDepth - plies to search, 0 for no limit but the time
+		 * @param maxMillis - time to search, 0 for no limit but the depth
+		 * @throws IllegalArgumentException if there is no limit at all or @param fen can't be parsed
+		 */
+		public Job(String id, String fen, int multiPv, int maxDepth, long maxMillis) {
+			this(id, Fen.toBoard(fen), multiPv, maxDepth, maxMillis);
+		}
+
+		public Job(String id, State state, int multiPv, int maxDepth, long maxMillis) {
+			this(id, new Board(state), multiPv, maxDepth, maxMillis);
+		}
+
+		private Job(String id, Board board, int multiPv, int maxDepth, long maxMillis) {
+			if (maxDepth <= 0 && maxMillis <= 0) {
+				throw new IllegalArgumentException("A job needs a depth or a time limit");
+			}
+			if (multiPv < 1) {
+				throw new IllegalArgumentException("multiPv must be at least 1: " + multiPv);
+			}
+			this.id = id;
+			this.board = board;
+			this.multiPv = multiPv;
+			this.maxDepth = maxDepth <= 0 ? MAX_DEPTH : Math.min(maxDepth, MAX_DEPTH);
+			this.maxMillis = Math.max(0, maxMillis);
+		}
+	}
+
+	/**
+	 * The results of one {@link #analyze(Iterable)} batch, one per submitted job, as they are done;
+	 * read by one thread
+	 */
+	public static final class Results {
+		private static final Analysis END = new Analysis(null, null, Status.COMPLETED, null, 0, 0, 0, null, null);
+
+		private final BlockingQueue<Analysis> queue = new LinkedBlockingQueue<Analysis>();
+		/** jobs not reported yet, plus one while jobs are still being submitted */
+		private final AtomicInteger outstanding = new AtomicInteger(1);
+		/** submitted and not done yet */
+		private final Set<Future<Analysis>> running = Collections.newSetFromMap(new ConcurrentHashMap<Future<Analysis>, Boolean>());
+		private volatile boolean cancelled;
+		private boolean ended;
+
+		private Results(){}
+
+		private void report(Analysis a) {
+			if (a != null) {
+				queue.add(a);
+			}
+			if (outstanding.decrementAndGet() == 0) {
+				queue.add(END);
+			}
+		}
+
+		/** @return the next result, waiting for it if needed; null once every job has been reported */
+		public Analysis take() throws InterruptedException {
+			return ended ? null : unlessEnd(queue.take());
+		}
+
+		/** @return the next result, null if there is none within the timeout or every job has been reported */
+		public Analysis poll(long timeout, TimeUnit unit) throws InterruptedException {
+			return ended ? null : unlessEnd(queue.poll(timeout, unit));
+		}
+
+		private Analysis unlessEnd(Analysis a) {
+			if (a == END) {
+				ended = true;
+				return null;
+			}
+			return a;
+		}
+
+		/**
+		 * stops submitting the remaining jobs and cancels the submitted ones not done yet;
+		 * they are reported as CANCELLED
+		 */
+		public void cancel() {
+			cancelled = true;
+			for (Future<Analysis> f : running) {
+				f.cancel(true);
+			}
+		}
+	}
+
+	private final ThreadPoolExecutor pool;
+	private final Semaphore pending;
+
+	/**
+	 * @param threads - worker threads, each one searching one job at a time
+	 * @param maxPending - jobs queued or running at most, at least @param threads
+	 */
+	public AnalysisService(int threads, int maxPending) {
+		final AtomicInteger count = new AtomicInteger();
+		pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "analysis-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		pending = new Semaphore(Math.max(threads, maxPending));
+	}
+
+	/**
+	 * queues @param job, waiting while maxPending jobs are queued or running;
+	 * cancelling the Future with an interrupt stops its search
+	 */
+	public Future<Analysis> submit(Job job) throws InterruptedException {
+		pending.acquire();
+		return start(job, null);
+	}
+
+	/** @return the job's Future, or null if there was no room for it within the timeout */
+	public Future<Analysis> submit(Job job, long timeout, TimeUnit unit) throws InterruptedException {
+		return pending.tryAcquire(timeout, unit) ? start(job, null) : null;
+	}
+
+	/**
+	 * submits @param jobs from a background thread, as room becomes free
+	 * @return the results as they come
+	 */
+	public Results analyze(final Iterable<Job> jobs) {
+		final Results results = new Results();
+		Thread feeder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (Iterator<Job> it = jobs.iterator(); it.hasNext() && !results.cancelled;) {
+						Job job = it.next();
+						pending.acquire();
+						results.outstanding.incrementAndGet();
+						Future<Analysis> f = start(job, results);
+						if (results.cancelled) {
+							f.cancel(true);
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					results.report(null);
+				}
+			}
+		}, "analysis-feeder");
+		feeder.setDaemon(true);
+		feeder.start();
+		return results;
+	}
+
+	/**
+	 * a job on the pool, holding one of the pending permits until it has run or left the queue:
+	 * a job cancelled in the queue is taken out of it at once, one cancelled while running keeps
+	 * its permit until its worker is done with it
+	 */
+	private final class Task extends FutureTask<Analysis> {
+		private final Job job;
+		private final Results results;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		Task(final Job job, Results results) {
+			super(new Callable<Analysis>() {
+				@Override
+				public Analysis call() {
+					return AnalysisService.run(job);
+				}
+			});
+			this.job = job;
+			this.results = results;
+		}
+
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				release();
+			}
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				pending.release();
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled() && pool.remove(this)) {
+				release();
+			}
+			if (results != null) {
+				results.running.remove(this);
+				Analysis a;
+				try {
+					a = isCancelled() ? cancelled(job) : get();
+				} catch (Exception e) {
+					a = new Analysis(job.id, Fen.of(job.board), Status.FAILED, null, 0, 0, 0, null, e);
+				}
+				results.report(a);
+			}
+		}
+	}
+
+	private Future<Analysis> start(Job job, Results results) {
+		Task task = new Task(job, results);
+		if (results != null) {
+			results.running.add(task);
+		}
+		try {
+			pool.execute(task);
+		} catch (RuntimeException e) {
+			// rejected once the service is closed
+			task.cancel(false);
+			task.release();
+			throw e;
+		}
+		return task;
+	}
+
+	private static Analysis cancelled(Job job) {
+		return new Analysis(job.id, Fen.of(job.board), Status.CANCELLED, null, 0, 0, 0, null, null);
+	}
+
+	/** searches @param job on the calling thread */
+	static Analysis run(Job job) {
+		long t0 = System.nanoTime();
+		String fen = Fen.of(job.board);
+		Search search = new Search(job.board);
+		try {
+			State.GameOverReason over = GameEndDetector.detect(job.board);
+			Search.Line[] lines = over != null ? null
+					: search.search(job.maxDepth, job.maxMillis > 0 ? TimeManager.fixed(TimeUnit.MILLISECONDS.toNanos(job.maxMillis))
+							: TimeManager.unlimited(), job.multiPv, null);
+			// running out of time is how a time-limited job completes, only a cancel makes it incomplete
+			boolean cancelled = search.aborted() && Thread.currentThread().isInterrupted();
+			return new Analysis(job.id, fen, cancelled ? Status.CANCELLED : Status.COMPLETED, over, search.completedDepth(),
+					search.nodes(), (System.nanoTime() - t0) / 1000000, cancelled ? null : lines, null);
+		} catch (RuntimeException e) {
+			return new Analysis(job.id, fen, Status.FAILED, null, search.completedDepth(), search.nodes(),
+					(System.nanoTime() - t0) / 1000000, null, e);
+		}
+	}
+
+	/** cancels the running jobs and drops the queued ones */
+	@Override
+	public void close() {
+		pool.shutdownNow();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors(), pending = 0, multiPv = 3, depth = 0;
+		long millis = 1000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "-threads":
+					threads = Integer.parseInt(args[i + 1]);
+					break;
+				case "-pending":
+					pending = Integer.parseInt(args[i + 1]);
+					break;
+				case "-multipv":
+					multiPv = Integer.parseInt(args[i + 1]);
+					break;
+				case "-depth":
+					depth = Integer.parseInt(args[i + 1]);
+					millis = 0;
+					break;
+				case "-millis":
+					millis = Long.parseLong(args[i + 1]);
+					break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					return;
+			}
+		}
+		List<Job> jobs = new ArrayList<Job>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		int n = 0;
+		for (String line; (line = in.readLine()) != null;) {
+			if (!line.trim().isEmpty()) {
+				jobs.add(new Job(String.valueOf(++n), line, multiPv, depth, millis));
+			}
+		}
+		AnalysisService service = new AnalysisService(threads, pending == 0 ? 2 * threads : pending);
+		try {
+			Results results = service.analyze(jobs);
+			for (Analysis a; (a = results.take()) != null;) {
+				System.out.println(a);
+			}
+		} finally {
+			service.close();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package chess;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Speed and allocation benchmark of {@link Perft} and {@link Search} on a few positions.
+ *
+ * Every position is run twice, the second time once the thread's {@link SearchStack} and the JIT are warm,
+ * and the bytes the thread allocates during that second run are reported per node, as counted by the JVM
+ * (com.sun.management.ThreadMXBean). Perft must allocate nothing at all and a search only
+ * its root lines; the benchmark exits with status 1 if one of them allocates more.
+ * The searches run on a {@link SearchPool} the way {@link Uci} runs them, so that its reuse of the stacks is counted too.
+ *
+ * usage: java chess.Bench [perft depth] [search depth]
+ */
+public final class Bench {
+
+	private Bench(){}
+
+	static final String[] POSITIONS = {
+		Fen.STARTPOS,
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+		"r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3",
+		"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+	};
+
+	/** bytes a search may allocate per completed iteration: its lines and their principal variations */
+	static final long SEARCH_BYTES_PER_ITERATION = 4096;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static long allocated() {
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/** by all the threads of @param pool */
+	private static long allocated(SearchPool pool) {
+		long bytes = 0;
+		for (long b : THREADS.getThreadAllocatedBytes(pool.threadIds())) {
+			bytes += b;
+		}
+		return bytes;
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		int perftDepth = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int searchDepth = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+		if (!THREADS.isThreadAllocatedMemorySupported()) {
+			System.err.println("The JVM doesn't count allocated bytes per thread");
+			System.exit(2);
+		}
+		THREADS.setThreadAllocatedMemoryEnabled(true);
+		boolean ok = true;
+		long totalNodes = 0, totalNanos = 0;
+		// the first pass warms up the thread, the JIT and the allocation counter itself
+		for (int pass = 0; pass < 2; pass++) {
+			for (String fen : POSITIONS) {
+				Board b = Fen.toBoard(fen);
+				long bytes = allocated(), t0 = System.nanoTime();
+				long nodes = Perft.perft(b, perftDepth);
+				long nanos = System.nanoTime() - t0;
+				bytes = allocated() - bytes;
+				if (pass > 0) {
+					ok &= bytes == 0;
+					System.out.println(String.format("perft(%d) %,14d nodes %,12d nodes/s %,10d bytes  %s", perftDepth, nodes,
+							nodes * 1000000000L / Math.max(1, nanos), bytes, fen));
+				}
+			}
+		}
+		final SearchPool pool = new SearchPool(1);
+		for (int pass = 0; pass < 2; pass++) {
+			for (String fen : POSITIONS) {
+				final Search[] s = {new Search(Fen.toBoard(fen))};
+				final Search search = s[0];
+				final TimeManager time = TimeManager.unlimited();
+				final int depth = searchDepth;
+				long bytes = allocated(pool), t0 = System.nanoTime();
+				Search.Line[] lines = pool.submit(new Callable<Search.Line[]>() {
+					@Override
+					public Search.Line[] call() {
+						return pool.search(s, depth, time, 1, null);
+					}
+				}).get();
+				long nanos = System.nanoTime() - t0;
+				bytes = allocated(pool) - bytes;
+				if (pass > 0) {
+					ok &= bytes <= SEARCH_BYTES_PER_ITERATION * search.completedDepth();
+					totalNodes += search.nodes();
+					totalNanos += nanos;
+					System.out.println(String.format("search(%d) %,13d nodes %,12d nodes/s %,10d bytes %6.3f bytes/node  %s %s",
+							searchDepth, search.nodes(), search.nodes() * 1000000000L / Math.max(1, nanos), bytes,
+							(double) bytes / Math.max(1, search.nodes()), Moves.toString(lines[0].move), fen));
+				}
+			}
+		}
+		pool.shutdown();
+		System.out.println(String.format("search total %,d nodes %,d ms %,d nodes/s", totalNodes, totalNanos / 1000000,
+				totalNodes * 1000000000L / Math.max(1, totalNanos)));
+		if (!ok) {
+			System.out.println("allocated more than allowed at steady state");
+			System.exit(1);
+		}
+	}
+}
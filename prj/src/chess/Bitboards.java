@@ -0,0 +1,100 @@
+package chess;
+
+/**
+ * Precomputed attack tables for the 64-bit board representation used by {@link Board}.
+ * A square is numbered rank*8 + file, i.e. Position(row, col) of {@link State} maps to col*8 + row,
+ * so bit 0 is a1 and bit 63 is h8.
+ */
+final class Bitboards {
+
+	private Bitboards(){}
+
+	static final long FILE_A = 0x0101010101010101L;
+	static final long FILE_H = FILE_A << 7;
+	static final long RANK_1 = 0xFFL;
+	static final long RANK_8 = RANK_1 << 56;
+	static final long DARK_SQUARES = 0xAA55AA55AA55AA55L;
+
+	static final long[] KNIGHT_ATTACKS = new long[64];
+	static final long[] KING_ATTACKS = new long[64];
+	/** squares attacked by a pawn of the color [0 - white, 1 - black] standing on the square */
+	static final long[][] PAWN_ATTACKS = new long[2][64];
+	/** squares strictly between two squares sharing a line or diagonal, 0 otherwise */
+	static final long[][] BETWEEN = new long[64][64];
+	/** the whole line or diagonal through two squares (edge to edge), 0 if they are not aligned */
+	static final long[][] LINE = new long[64][64];
+
+	// ray directions as {file step, rank step}: first four increase the square number, last four decrease it
+	private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {-1, 1}, {0, -1}, {-1, 0}, {-1, -1}, {1, -1}};
+	private static final long[][] RAYS = new long[8][64];
+
+	static {
+		int[][] knight = {{-2, 1}, {-1, 2}, {1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}};
+		for (int sq = 0; sq < 64; sq++) {
+			int f = sq & 7, r = sq >>> 3;
+			for (int[] o : knight) {
+				KNIGHT_ATTACKS[sq] |= bit(f + o[0], r + o[1]);
+			}
+			for (int[] d : DIRECTIONS) {
+				KING_ATTACKS[sq] |= bit(f + d[0], r + d[1]);
+			}
+			PAWN_ATTACKS[0][sq] = bit(f - 1, r + 1) | bit(f + 1, r + 1);
+			PAWN_ATTACKS[1][sq] = bit(f - 1, r - 1) | bit(f + 1, r - 1);
+			for (int d = 0; d < 8; d++) {
+				for (int i = 1; i < 8; i++) {
+					RAYS[d][sq] |= bit(f + i * DIRECTIONS[d][0], r + i * DIRECTIONS[d][1]);
+				}
+			}
+		}
+		for (int a = 0; a < 64; a++) {
+			for (int d = 0; d < 8; d++) {
+				long ray = RAYS[d][a];
+				while (ray != 0) {
+					int b = Long.numberOfTrailingZeros(ray);
+					ray &= ray - 1;
+					BETWEEN[a][b] = RAYS[d][a] & ~RAYS[d][b] & ~(1L << b);
+					LINE[a][b] = RAYS[d][a] | RAYS[(d + 4) & 7][a] | (1L << a);
+				}
+			}
+		}
+	}
+
+	private static long bit(int file, int rank) {
+		return file >= 0 && file < 8 && rank >= 0 && rank < 8 ? 1L << (rank * 8 + file) : 0L;
+	}
+
+	static int square(int file, int rank) {
+		return rank * 8 + file;
+	}
+
+	static int file(int sq) {
+		return sq & 7;
+	}
+
+	static int rank(int sq) {
+		return sq >>> 3;
+	}
+
+	/** attacks along one ray stopping at (and including) the first blocker */
+	private static long ray(int d, int sq, long occ) {
+		long attacks = RAYS[d][sq];
+		long blockers = attacks & occ;
+		if (blockers != 0) {
+			int first = d < 4 ? Long.numberOfTrailingZeros(blockers) : 63 - Long.numberOfLeadingZeros(blockers);
+			attacks &= ~RAYS[d][first];
+		}
+		return attacks;
+	}
+
+	static long rookAttacks(int sq, long occ) {
+		return ray(0, sq, occ) | ray(1, sq, occ) | ray(4, sq, occ) | ray(5, sq, occ);
+	}
+
+	static long bishopAttacks(int sq, long occ) {
+		return ray(2, sq, occ) | ray(3, sq, occ) | ray(6, sq, occ) | ray(7, sq, occ);
+	}
+
+	static long queenAttacks(int sq, long occ) {
+		return rookAttacks(sq, occ) | bishopAttacks(sq, occ);
+	}
+}
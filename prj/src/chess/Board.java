@@ -0,0 +1,400 @@
+package chess;
+
+import static chess.Bitboards.*;
+
+import java.util.Arrays;
+
+import games.PlayerColor;
+import games.Position;
+
+/**
+ * Bitboard mirror of a {@link State}: one 64-bit set per piece kind and color plus a mailbox,
+ * so that attacks, checks and pins can be answered with a few bit operations instead of
+ * enumerating the valid moves of every piece on a copied state.
+ * Squares are numbered as in {@link Bitboards}.
+ */
+final class Board {
+
+	static final int WHITE = 0, BLACK = 1;
+	// same order as PieceKind
+	static final int KING = 0, QUEEN = 1, ROOK = 2, BISHOP = 3, KNIGHT = 4, PAWN = 5;
+	static final int EMPTY = -1;
+	static final int NO_SQUARE = -1;
+	// castling rights
+	static final int WHITE_SHORT = 1, WHITE_LONG = 2, BLACK_SHORT = 4, BLACK_LONG = 8;
+
+	private static final PieceKind[] KINDS = PieceKind.values();
+	/** the rooks of the standard setup, by castling right as below */
+	private static final int[] STANDARD_ROOKS = {
+		square(State.ROOKROWCLOSE, 0), square(State.ROOKROWFAR, 0), square(State.ROOKROWCLOSE, 7), square(State.ROOKROWFAR, 7)
+	};
+	private static final int[] STANDARD_MASK = castlingMask(STANDARD_ROOKS, square(State.KINGROW, 0), square(State.KINGROW, 7));
+
+	/** [color * 6 + kind] */
+	final long[] pieces = new long[12];
+	final long[] colors = new long[2];
+	long occupied;
+	/** color * 6 + kind of the piece on every square, EMPTY if there is none */
+	final int[] mailbox = new int[64];
+	int side;
+	int castling;
+	/**
+	 * the square of the rook every castling right is for, at index i for right 1 &lt;&lt; i;
+	 * the corners unless set otherwise for a Chess960 setup. Shared between copies, replaced rather than changed.
+	 */
+	int[] castlingRooks = STANDARD_ROOKS;
+	/** castling rights kept when a piece moves from or to the square */
+	private int[] castlingMask = STANDARD_MASK;
+	/** the square a pawn can capture en passant onto, NO_SQUARE if there is none */
+	int epSquare = NO_SQUARE;
+	int halfmoveClock;
+	/** Zobrist key of the position, kept up to date by put/remove and make/unmake */
+	long hash;
+
+	/** an empty board, white to move */
+	Board() {
+		for (int sq = 0; sq < 64; sq++) {
+			mailbox[sq] = EMPTY;
+		}
+	}
+
+	Board(Board other) {
+		System.arraycopy(other.pieces, 0, pieces, 0, pieces.length);
+		System.arraycopy(other.colors, 0, colors, 0, colors.length);
+		System.arraycopy(other.mailbox, 0, mailbox, 0, mailbox.length);
+		occupied = other.occupied;
+		side = other.side;
+		castling = other.castling;
+		castlingRooks = other.castlingRooks;
+		castlingMask = other.castlingMask;
+		epSquare = other.epSquare;
+		halfmoveClock = other.halfmoveClock;
+		hash = other.hash;
+	}
+
+	Board(State s) {
+		this(s, s.getPlayerColor());
+	}
+
+	/**
+	 * builds the board from @param s as if it were @param toMove's turn
+	 * (makeMove only flips the turn at the very end)
+	 */
+	Board(State s, PlayerColor toMove) {
+		this();
+		for (int sq = 0; sq < 64; sq++) {
+			Piece p = s.getCell(file(sq), rank(sq));
+			if (p.getColor() != null) {
+				put(colorIndex(p.getColor()), p.getKind().ordinal(), sq);
+			}
+		}
+		side = colorIndex(toMove);
+		halfmoveClock = s.movesWithoutCaptureNorPawn;
+		// castling is still possible while neither the king nor the rook involved have moved
+		for (int c = WHITE; c <= BLACK; c++) {
+			int k = kingSquare(c), back = c == WHITE ? 0 : 7;
+			if (k != NO_SQUARE && rank(k) == back && isUnmoved(s, c, KING, file(k), back)) {
+				if (isUnmoved(s, c, ROOK, s.getRookRowClose(), back)) {
+					addCastlingRight(c, square(s.getRookRowClose(), back));
+				}
+				if (isUnmoved(s, c, ROOK, s.getRookRowFar(), back)) {
+					addCastlingRight(c, square(s.getRookRowFar(), back));
+				}
+			}
+		}
+		// State remembers the pawn which has just made its first long move
+		Position ep = s.getEnpassantPosition();
+		if (ep != null && ep.isInRange(0, State.BOARDLENGTH)) {
+			int sq = square(ep.getRow(), ep.getCol());
+			int them = side ^ 1;
+			if (mailbox[sq] == them * 6 + PAWN && rank(sq) == (them == WHITE ? 3 : 4)) {
+				int passed = them == WHITE ? sq - 8 : sq + 8;
+				epSquare = canCaptureEnPassant(passed, side) ? passed : NO_SQUARE;
+			}
+		}
+		hash = computeHash();
+	}
+
+	/**
+	 * @return a State with the same position; pieces other than kings and rooks with castling rights
+	 * count as moved, which only matters for castling
+	 */
+	State toState() {
+		State s = new State();
+		for (int sq = 0; sq < 64; sq++) {
+			Piece cell = s.getCell(file(sq), rank(sq));
+			if (mailbox[sq] == EMPTY) {
+				cell.PieceRemove();
+			} else {
+				cell.SetPiece(new Piece(playerColor(mailbox[sq] / 6), pieceKind(mailbox[sq] % 6), true));
+			}
+		}
+		// State has one pair of castling files for both players, as in every start position
+		int close = State.ROOKROWCLOSE, far = State.ROOKROWFAR;
+		for (int i = 3; i >= 0; i--) {
+			if ((castling & (1 << i)) != 0) {
+				if ((i & 1) == 0) {
+					close = file(castlingRooks[i]);
+				} else {
+					far = file(castlingRooks[i]);
+				}
+				s.getCell(file(castlingRooks[i]), rank(castlingRooks[i])).setIfMoved(false);
+				int k = kingSquare(i / 2);
+				s.getCell(file(k), rank(k)).setIfMoved(false);
+			}
+		}
+		s.setRookRows(close, far);
+		s.setPlayerColor(playerColor(side));
+		s.movesWithoutCaptureNorPawn = halfmoveClock;
+		if (epSquare != NO_SQUARE) {
+			int pawn = side == WHITE ? epSquare - 8 : epSquare + 8;
+			s.setEmpassantPosition(Position.of(file(pawn), rank(pawn)));
+		}
+		return s;
+	}
+
+	/** whether a pawn of @param color stands next to the pawn which has just passed @param sq */
+	boolean canCaptureEnPassant(int sq, int color) {
+		return (PAWN_ATTACKS[color ^ 1][sq] & pieces[color * 6 + PAWN]) != 0;
+	}
+
+	long computeHash() {
+		long h = 0;
+		for (int sq = 0; sq < 64; sq++) {
+			if (mailbox[sq] != EMPTY) {
+				h ^= Zobrist.PIECES[mailbox[sq]][sq];
+			}
+		}
+		h ^= Zobrist.CASTLING[castling];
+		if (epSquare != NO_SQUARE) {
+			h ^= Zobrist.EN_PASSANT_FILE[file(epSquare)];
+		}
+		return side == BLACK ? h ^ Zobrist.BLACK_TO_MOVE : h;
+	}
+
+	private static boolean isUnmoved(State s, int color, int kind, int file, int rank) {
+		Piece p = s.getCell(file, rank);
+		return p.getColor() != null && colorIndex(p.getColor()) == color && p.getKind().ordinal() == kind && !p.getIfMoved();
+	}
+
+	static int colorIndex(PlayerColor pc) {
+		return pc.isWhite() ? WHITE : BLACK;
+	}
+
+	/**
+	 * gives @param color the right to castle with the rook on @param rook, on the side of the king the rook is on
+	 * (to be followed by computeHash)
+	 * @return false, changing nothing, unless the king and that rook of @param color are both on its back rank
+	 */
+	boolean addCastlingRight(int color, int rook) {
+		int k = kingSquare(color), back = color == WHITE ? 0 : 7;
+		if (k == NO_SQUARE || rank(k) != back || rook < 0 || rank(rook) != back || mailbox[rook] != color * 6 + ROOK) {
+			return false;
+		}
+		int i = color * 2 + (rook > k ? 0 : 1);
+		if (castlingRooks[i] != rook) {
+			int[] rooks = castlingRooks.clone();
+			rooks[i] = rook;
+			castlingRooks = Arrays.equals(rooks, STANDARD_ROOKS) ? STANDARD_ROOKS : rooks;
+		}
+		castling |= 1 << i;
+		int whiteKing = (castling & (WHITE_SHORT | WHITE_LONG)) != 0 ? kingSquare(WHITE) : square(State.KINGROW, 0);
+		int blackKing = (castling & (BLACK_SHORT | BLACK_LONG)) != 0 ? kingSquare(BLACK) : square(State.KINGROW, 7);
+		castlingMask = castlingRooks == STANDARD_ROOKS && whiteKing == square(State.KINGROW, 0) && blackKing == square(State.KINGROW, 7)
+				? STANDARD_MASK : castlingMask(castlingRooks, whiteKing, blackKing);
+		return true;
+	}
+
+	/**
+	 * @return the square of the rook of @param color furthest from its king on its back rank, towards the h file
+	 * if @param kingSide, NO_SQUARE if there is none; the one castling rights like KQkq are for
+	 */
+	int outermostRook(int color, boolean kingSide) {
+		int k = kingSquare(color), back = color == WHITE ? 0 : 7;
+		if (k == NO_SQUARE || rank(k) != back) {
+			return NO_SQUARE;
+		}
+		for (int f = kingSide ? 7 : 0; kingSide ? f > file(k) : f < file(k); f += kingSide ? -1 : 1) {
+			if (mailbox[square(f, back)] == color * 6 + ROOK) {
+				return square(f, back);
+			}
+		}
+		return NO_SQUARE;
+	}
+
+	private static int[] castlingMask(int[] rooks, int whiteKing, int blackKing) {
+		int[] mask = new int[64];
+		Arrays.fill(mask, WHITE_SHORT | WHITE_LONG | BLACK_SHORT | BLACK_LONG);
+		mask[whiteKing] &= ~(WHITE_SHORT | WHITE_LONG);
+		mask[blackKing] &= ~(BLACK_SHORT | BLACK_LONG);
+		for (int i = 0; i < 4; i++) {
+			mask[rooks[i]] &= ~(1 << i);
+		}
+		return mask;
+	}
+
+	static PlayerColor playerColor(int color) {
+		return color == WHITE ? PlayerColor.WHITE : PlayerColor.BLACK;
+	}
+
+	static PieceKind pieceKind(int kind) {
+		return KINDS[kind];
+	}
+
+	void put(int color, int kind, int sq) {
+		long b = 1L << sq;
+		pieces[color * 6 + kind] |= b;
+		colors[color] |= b;
+		occupied |= b;
+		mailbox[sq] = color * 6 + kind;
+		hash ^= Zobrist.PIECES[color * 6 + kind][sq];
+	}
+
+	void remove(int sq) {
+		int piece = mailbox[sq];
+		long b = ~(1L << sq);
+		pieces[piece] &= b;
+		colors[piece / 6] &= b;
+		occupied &= b;
+		mailbox[sq] = EMPTY;
+		hash ^= Zobrist.PIECES[piece][sq];
+	}
+
+	/**
+	 * applies a legal move generated by {@link MoveGenerator}
+	 * @return the information {@link #unmake(int, long)} needs to take it back
+	 */
+	long make(int move) {
+		int from = Moves.from(move), to = Moves.to(move);
+		int us = side;
+		int kind = mailbox[from] - us * 6;
+		int capturedSq = (move & Moves.EN_PASSANT) != 0 ? (us == WHITE ? to - 8 : to + 8) : to;
+		int captured = (move & Moves.CASTLING) != 0 ? EMPTY : mailbox[capturedSq];
+		long undo = (captured + 1) | (castling << 4) | ((epSquare + 1L) << 8) | ((long) halfmoveClock << 16);
+
+		if ((move & Moves.CASTLING) != 0) {
+			// king to the g file and rook to the f one, or c and d; in Chess960 either may land on the other's square
+			int kingTo = Moves.destination(move), rookTo = to > from ? kingTo - 1 : kingTo + 1;
+			remove(from);
+			remove(to);
+			put(us, KING, kingTo);
+			put(us, ROOK, rookTo);
+		} else {
+			if (captured != EMPTY) {
+				remove(capturedSq);
+			}
+			remove(from);
+			put(us, Moves.isPromotion(move) ? Moves.promotion(move) : kind, to);
+		}
+		hash ^= Zobrist.CASTLING[castling] ^ Zobrist.BLACK_TO_MOVE;
+		castling &= castlingMask[from] & castlingMask[to];
+		hash ^= Zobrist.CASTLING[castling];
+		if (epSquare != NO_SQUARE) {
+			hash ^= Zobrist.EN_PASSANT_FILE[file(epSquare)];
+		}
+		// only remembered if an opponent's pawn can take it, so that positions repeat by hash
+		int passed = (from + to) >>> 1;
+		epSquare = (move & Moves.DOUBLE_PUSH) != 0 && canCaptureEnPassant(passed, us ^ 1) ? passed : NO_SQUARE;
+		if (epSquare != NO_SQUARE) {
+			hash ^= Zobrist.EN_PASSANT_FILE[file(epSquare)];
+		}
+		halfmoveClock = kind == PAWN || captured != EMPTY ? 0 : halfmoveClock + 1;
+		side = us ^ 1;
+		return undo;
+	}
+
+	void unmake(int move, long undo) {
+		int us = side ^ 1;
+		int from = Moves.from(move), to = Moves.to(move);
+		if ((move & Moves.CASTLING) != 0) {
+			int kingTo = Moves.destination(move), rookTo = to > from ? kingTo - 1 : kingTo + 1;
+			remove(kingTo);
+			remove(rookTo);
+			put(us, KING, from);
+			put(us, ROOK, to);
+		} else {
+			int kind = Moves.isPromotion(move) ? PAWN : mailbox[to] - us * 6;
+			remove(to);
+			put(us, kind, from);
+		}
+		int captured = (int) (undo & 15) - 1;
+		if (captured != EMPTY) {
+			int capturedSq = (move & Moves.EN_PASSANT) != 0 ? (us == WHITE ? to - 8 : to + 8) : to;
+			put(captured / 6, captured % 6, capturedSq);
+		}
+		hash ^= Zobrist.CASTLING[castling] ^ Zobrist.BLACK_TO_MOVE;
+		if (epSquare != NO_SQUARE) {
+			hash ^= Zobrist.EN_PASSANT_FILE[file(epSquare)];
+		}
+		castling = (int) (undo >>> 4) & 15;
+		epSquare = (int) ((undo >>> 8) & 127) - 1;
+		hash ^= Zobrist.CASTLING[castling];
+		if (epSquare != NO_SQUARE) {
+			hash ^= Zobrist.EN_PASSANT_FILE[file(epSquare)];
+		}
+		halfmoveClock = (int) (undo >>> 16) & 0xFFFF;
+		side = us;
+	}
+
+	long bb(int color, int kind) {
+		return pieces[color * 6 + kind];
+	}
+
+	int kingSquare(int color) {
+		long k = pieces[color * 6 + KING];
+		return k == 0 ? NO_SQUARE : Long.numberOfTrailingZeros(k);
+	}
+
+	/** pieces of both colors attacking @param sq, sliders being blocked by @param occ */
+	long attackersTo(int sq, long occ) {
+		return (PAWN_ATTACKS[BLACK][sq] & pieces[WHITE * 6 + PAWN])
+				| (PAWN_ATTACKS[WHITE][sq] & pieces[BLACK * 6 + PAWN])
+				| (KNIGHT_ATTACKS[sq] & (pieces[KNIGHT] | pieces[6 + KNIGHT]))
+				| (KING_ATTACKS[sq] & (pieces[KING] | pieces[6 + KING]))
+				| (bishopAttacks(sq, occ) & (pieces[BISHOP] | pieces[QUEEN] | pieces[6 + BISHOP] | pieces[6 + QUEEN]))
+				| (rookAttacks(sq, occ) & (pieces[ROOK] | pieces[QUEEN] | pieces[6 + ROOK] | pieces[6 + QUEEN]));
+	}
+
+	boolean isAttacked(int sq, int byColor, long occ) {
+		return (attackersTo(sq, occ) & colors[byColor]) != 0;
+	}
+
+	/** opponent's pieces giving check to the side to move */
+	long checkers() {
+		int k = kingSquare(side);
+		return k == NO_SQUARE ? 0 : attackersTo(k, occupied) & colors[side ^ 1];
+	}
+
+	boolean inCheck() {
+		return checkers() != 0;
+	}
+
+	/** pieces of @param color which can't leave the line between their king and an opponent's slider */
+	long pinned(int color) {
+		return blockers(color) & colors[color];
+	}
+
+	/**
+	 * pieces of either color standing alone between the king of @param kingColor and an opponent's slider:
+	 * own ones are pinned, the opponent's ones give a discovered check when they move off the line
+	 */
+	long blockers(int kingColor) {
+		int k = kingSquare(kingColor);
+		if (k == NO_SQUARE) {
+			return 0;
+		}
+		int them = kingColor ^ 1;
+		long snipers = (rookAttacks(k, 0) & (bb(them, ROOK) | bb(them, QUEEN)))
+				| (bishopAttacks(k, 0) & (bb(them, BISHOP) | bb(them, QUEEN)));
+		long res = 0;
+		while (snipers != 0) {
+			int s = Long.numberOfTrailingZeros(snipers);
+			snipers &= snipers - 1;
+			long between = BETWEEN[k][s] & occupied;
+			if (between != 0 && (between & (between - 1)) == 0) {
+				res |= between;
+			}
+		}
+		return res;
+	}
+}
@@ -0,0 +1,220 @@
+package chess;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import games.PlayerColor;
+
+/**
+ * Text rendering of the board of a {@link State}: the letter board of {@link State#toString()},
+ * the chess symbols board of {@link State#toStringWithSymbols()} and a compact single line for logs
+ * (FEN piece placement followed by the player to move, e.g. <code>rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR B</code>).
+ *
+ * The boards are written into a caller's Appendable or StringBuilder without intermediate strings;
+ * the String forms are cached by a hash of the piece placement, as the console prints
+ * and compares the same positions over and over again.
+ */
+public final class BoardRenderer {
+
+	private BoardRenderer(){}
+
+	static final int CACHE_SIZE = 1024;
+
+	private static final String HEADER = header();
+	private static final String SYMBOLS_HEADER = symbolsHeader();
+	// [color * 6 + kind], color and kind as written by Piece.toString(), cut to 6 characters
+	private static final String[] LABELS = new String[12];
+	private static final char[] SYMBOLS = new char[12];
+	private static final char[] LETTERS = new char[12];
+
+	static {
+		String white = "\u2654\u2655\u2656\u2657\u2658\u2659", black = "\u265A\u265B\u265C\u265D\u265E\u265F";
+		for (PieceKind kind : PieceKind.values()) {
+			int k = kind.ordinal();
+			LABELS[k] = (PlayerColor.WHITE + " " + kind).substring(0, 6);
+			LABELS[6 + k] = (PlayerColor.BLACK + " " + kind).substring(0, 6);
+			SYMBOLS[k] = white.charAt(k);
+			SYMBOLS[6 + k] = black.charAt(k);
+			LETTERS[k] = "KQRBNP".charAt(k);
+			LETTERS[6 + k] = "kqrbnp".charAt(k);
+		}
+	}
+
+	private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(1024);
+		}
+	};
+
+	private static final Map<Long, String> LETTER_CACHE = lruCache();
+	private static final Map<Long, String> SYMBOL_CACHE = lruCache();
+
+	private static Map<Long, String> lruCache() {
+		return new LinkedHashMap<Long, String>(CACHE_SIZE * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+
+	private static String header() {
+		StringBuilder res = new StringBuilder("   ");
+		for (char alphabet = 'a'; alphabet <= 'h'; alphabet++) {
+			res.append("    ").append(alphabet).append("    ");
+		}
+		return res.append('\n').toString();
+	}
+
+	private static String symbolsHeader() {
+		StringBuilder res = new StringBuilder("    ");
+		for (char alphabet = 'a'; alphabet <= 'h'; alphabet++) {
+			res.append("\u3000\u2009\u2006").append(alphabet);
+		}
+		return res.toString();
+	}
+
+	/** color * 6 + kind of the piece on the cell, -1 if it's empty */
+	private static int code(State s, int row, int col) {
+		Piece p = s.getCell(row, col);
+		return p.getColor() == null ? -1 : (p.getColor().isWhite() ? 0 : 6) + p.getKind().ordinal();
+	}
+
+	/** Zobrist hash of the piece placement only (neither the player to move nor castling) */
+	static long placementHash(State s) {
+		long h = 0;
+		for (int row = 0; row < State.BOARDLENGTH; row++) {
+			for (int col = 0; col < State.BOARDLENGTH; col++) {
+				int c = code(s, row, col);
+				if (c >= 0) {
+					h ^= Zobrist.PIECES[c][Bitboards.square(row, col)];
+				}
+			}
+		}
+		return h;
+	}
+
+	/** the board with letters, the same text as State.toString() */
+	public static String toString(State s) {
+		Long key = placementHash(s);
+		synchronized (LETTER_CACHE) {
+			String res = LETTER_CACHE.get(key);
+			if (res != null) {
+				return res;
+			}
+		}
+		StringBuilder buf = BUFFER.get();
+		buf.setLength(0);
+		render(s, buf);
+		String res = buf.toString();
+		synchronized (LETTER_CACHE) {
+			LETTER_CACHE.put(key, res);
+		}
+		return res;
+	}
+
+	/** the board with chess symbols, the same text as State.toStringWithSymbols() */
+	public static String toStringWithSymbols(State s) {
+		Long key = placementHash(s);
+		synchronized (SYMBOL_CACHE) {
+			String res = SYMBOL_CACHE.get(key);
+			if (res != null) {
+				return res;
+			}
+		}
+		StringBuilder buf = BUFFER.get();
+		buf.setLength(0);
+		renderWithSymbols(s, buf);
+		String res = buf.toString();
+		synchronized (SYMBOL_CACHE) {
+			SYMBOL_CACHE.put(key, res);
+		}
+		return res;
+	}
+
+	public static String toCompactString(State s) {
+		StringBuilder buf = BUFFER.get();
+		buf.setLength(0);
+		renderCompact(s, buf);
+		return buf.toString();
+	}
+
+	public static void render(State s, StringBuilder out) {
+		try {
+			render(s, (Appendable) out);
+		} catch (IOException e) {
+			throw new AssertionError(e); // a StringBuilder doesn't throw
+		}
+	}
+
+	public static void renderWithSymbols(State s, StringBuilder out) {
+		try {
+			renderWithSymbols(s, (Appendable) out);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/** FEN piece placement and the player to move, on one line */
+	public static void renderCompact(State s, StringBuilder out) {
+		for (int i = State.BOARDLENGTH - 1; i >= 0; i--) {
+			int empty = 0;
+			for (int j = 0; j < State.BOARDLENGTH; j++) {
+				int c = code(s, j, i);
+				if (c < 0) {
+					empty++;
+				} else {
+					if (empty > 0) {
+						out.append(empty);
+						empty = 0;
+					}
+					out.append(LETTERS[c]);
+				}
+			}
+			if (empty > 0) {
+				out.append(empty);
+			}
+			if (i > 0) {
+				out.append('/');
+			}
+		}
+		out.append(' ').append(s.getPlayerColor());
+	}
+
+	public static void render(State s, Appendable out) throws IOException {
+		out.append(HEADER);
+		for (int i = State.BOARDLENGTH - 1; i >= 0; i--) {
+			out.append((char) ('1' + i)).append(" | ");
+			for (int j = 0; j < State.BOARDLENGTH; j++) {
+				int c = code(s, j, i);
+				if (c < 0) {
+					out.append("_______|_");
+				} else {
+					out.append(LABELS[c]).append(" | ");
+				}
+			}
+			out.append('\n');
+		}
+	}
+
+	public static void renderWithSymbols(State s, Appendable out) throws IOException {
+		out.append(SYMBOLS_HEADER).append('\n');
+		for (int i = State.BOARDLENGTH - 1; i >= 0; i--) {
+			out.append((char) ('1' + i)).append(" |");
+			for (int j = 0; j < State.BOARDLENGTH; j++) {
+				int c = code(s, j, i);
+				if (c < 0) {
+					out.append("\u3000\u2009\u2006|");
+				} else {
+					out.append(SYMBOLS[c]).append('|');
+				}
+			}
+			out.append('\n');
+		}
+		out.append(SYMBOLS_HEADER);
+	}
+}
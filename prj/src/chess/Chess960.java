@@ -0,0 +1,71 @@
+package chess;
+
+import static chess.Board.*;
+
+/**
+ * The 960 start positions of Fischer Random Chess (https://en.wikipedia.org/wiki/Fischer_random_chess),
+ * numbered as by Reinhard Scharnagl: 518 is the standard setup RNBQKBNR.
+ * The bishops stand on squares of opposite colors and the king between the rooks; black mirrors white.
+ */
+final class Chess960 {
+
+	private Chess960(){}
+
+	static final int POSITIONS = 960;
+	static final int STANDARD = 518;
+
+	/** the files of the two knights among the 5 squares left after the bishops and the queen, by the number's last digit */
+	private static final int[][] KNIGHTS = {
+		{0, 1}, {0, 2}, {0, 3}, {0, 4}, {1, 2}, {1, 3}, {1, 4}, {2, 3}, {2, 4}, {3, 4}
+	};
+
+	/**
+	 * @return the Board kinds of the back rank of start position @param number, a file first
+	 * @throws IllegalArgumentException if it is not in 0-959
+	 */
+	static int[] backRank(int number) {
+		if (number < 0 || number >= POSITIONS) {
+			throw new IllegalArgumentException("A Chess960 start position is numbered 0-959: " + number);
+		}
+		int[] rank = new int[8];
+		for (int f = 0; f < 8; f++) {
+			rank[f] = EMPTY;
+		}
+		int n = number;
+		rank[(n % 4) * 2 + 1] = BISHOP; // b, d, f or h: a light square
+		n /= 4;
+		rank[(n % 4) * 2] = BISHOP; // a, c, e or g: a dark square
+		n /= 4;
+		place(rank, n % 6, QUEEN);
+		n /= 6;
+		// the knights go first, counting the squares left before either of them is placed
+		int second = KNIGHTS[n][1] - 1;
+		place(rank, KNIGHTS[n][0], KNIGHT);
+		place(rank, second, KNIGHT);
+		place(rank, 0, ROOK);
+		place(rank, 0, KING);
+		place(rank, 0, ROOK);
+		return rank;
+	}
+
+	/** puts @param kind on the empty square number @param i of @param rank, counting from the a file */
+	private static void place(int[] rank, int i, int kind) {
+		for (int f = 0; f < 8; f++) {
+			if (rank[f] == EMPTY && i-- == 0) {
+				rank[f] = kind;
+				return;
+			}
+		}
+	}
+
+	/** @return the FEN of start position @param number, castling rights included */
+	static String fen(int number) {
+		int[] rank = backRank(number);
+		StringBuilder white = new StringBuilder(8), black = new StringBuilder(8);
+		for (int kind : rank) {
+			white.append("KQRBNP".charAt(kind));
+			black.append("kqrbnp".charAt(kind));
+		}
+		return black + "/pppppppp/8/8/8/8/PPPPPPPP/" + white + " w KQkq - 0 1";
+	}
+}
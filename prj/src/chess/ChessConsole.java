@@ -1,5 +1,7 @@
 package chess;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Scanner;
@@ -34,47 +36,101 @@ public class ChessConsole {
 	static final int CONST_FOR_ALPHANUMERIC_CONVERSION = 96;
 	static final int CONST_FOR_3FOLD_RULE = 3;
 	
-	public static void main(String[] args) {
+	/**
+	 * usage: java chess.ChessConsole [journal directory [game id]]
+	 * with a journal every accepted move is on disk before the next one is asked for, and a game
+	 * the journal has not seen ending is resumed where it stopped; a game it has seen ending is not played again
+	 */
+	public static void main(String[] args) throws IOException {
 		State state = new State(), newState;
-		ChessConsole.printBoardState(state);
 		// this structure is required to watch for threefold repetition rule
 		List <String> prevStates = new LinkedList<String> ();
 		
 		int i = 1;
+		GameJournal journal = null;
+		long gameId = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		if (args.length > 0){
+			journal = GameJournal.open(new File(args[0]), GameJournal.DEFAULT_SEGMENTS, Runtime.getRuntime().availableProcessors());
+			if (journal.hasEnded(gameId)){
+				System.out.println ("Game " + gameId + " is over already. Please choose another game id.");
+				journal.close();
+				return;
+			}
+			GameJournal.Game game = journal.games().get(gameId);
+			if (game != null){
+				// replaying the moves rebuilds the positions the threefold repetition rule looks at
+				state = game.getStart();
+				for (Move m : game.getMoves()){
+					state = ChessConsole.accept(state, State.replayMove(state, m, game.getPromotion(i - 1)), prevStates);
+					i++;
+				}
+				// the journal also looked whether the last move ended the game
+				if (state.getGameOverReason() == null){
+					state.setGameOverReason(game.getState().getGameOverReason());
+				}
+				System.out.println ("Game " + gameId + " resumed after " + game.getMoves().size() + " moves.");
+			} else {
+				journal.await(journal.start(gameId, Fen.of(state)));
+			}
+		}
+		ChessConsole.printBoardState(state);
 		while (state.getGameOverReason() == null){
-			newState = State.makeMove(state, ChessConsole.getMovePosition(state.getPlayerColor(), i), false);
+			Move move = ChessConsole.getMovePosition(state.getPlayerColor(), i);
+			newState = State.makeMove(state, move, false);
 			if (state.getPlayerColor() != newState.getPlayerColor()){
-				
-				/* we need to check to for threefold repetition rule - whether there already existed 2
-				 * overall pieces disposition exactly like this one during the current game. 
-				 * if yes - game ends with a draw 
-				 */
-				
-				int numSameStates = 0;
-				for (String s : prevStates){
-					if (s.equals(newState.toString())){
-						numSameStates++;
-					}
+				if (journal != null){
+					journal.await(journal.append(gameId, i - 1, move, ChessConsole.promotion(state, newState, move)));
 				}
-				if (numSameStates == CONST_FOR_3FOLD_RULE)
-					newState.setGameOverReason(GameOverReason.THREEFOLD_REPETITION_RULE);
-				else numSameStates =0;
-				
-				// remembering to later on check for https://en.wikipedia.org/wiki/Threefold_repetition
-				if (newState.numPieces()!=state.numPieces()){
-					prevStates.clear(); //if the number of pieces changed, all the previous states cannot reooccur
-				} else {
-					prevStates.add(state.toString()); //adding state
-				}
-				
 				//printing and incrementing auxiliary counter only if the move was valid
 				i++;
-				ChessConsole.printBoardState(newState);
-				state = newState;
+				state = ChessConsole.accept(state, newState, prevStates);
+				ChessConsole.printBoardState(state);
 			} 
 		}
 		
 		ChessConsole.gameOverMessage (state);
+		if (journal != null){
+			journal.await(journal.end(gameId, i - 1));
+			journal.close();
+		}
+	}
+	
+	/**
+	 * @return @param newState, the valid move from @param state, after checking the threefold repetition rule
+	 * against @param prevStates, which it updates
+	 */
+	static State accept(State state, State newState, List<String> prevStates){
+		
+		/* we need to check to for threefold repetition rule - whether there already existed 2
+		 * overall pieces disposition exactly like this one during the current game. 
+		 * if yes - game ends with a draw 
+		 */
+		
+		int numSameStates = 0;
+		String newBoard = newState.toString();
+		for (String s : prevStates){
+			if (s.equals(newBoard)){
+				numSameStates++;
+			}
+		}
+		if (numSameStates == CONST_FOR_3FOLD_RULE)
+			newState.setGameOverReason(GameOverReason.THREEFOLD_REPETITION_RULE);
+		else numSameStates =0;
+		
+		// remembering to later on check for https://en.wikipedia.org/wiki/Threefold_repetition
+		if (newState.numPieces()!=state.numPieces()){
+			prevStates.clear(); //if the number of pieces changed, all the previous states cannot reooccur
+		} else {
+			prevStates.add(state.toString()); //adding state
+		}
+		return newState;
+	}
+	
+	/** @return the piece the pawn promoted to by @param move from @param state to @param newState, null if it didn't */
+	static PieceKind promotion(State state, State newState, Move move){
+		Piece moved = newState.getCell(move.getTo().getRow(), move.getTo().getCol());
+		return state.getCell(move.getFrom().getRow(), move.getFrom().getCol()).getKind() == PieceKind.PAWN
+				&& moved.getKind() != PieceKind.PAWN ? moved.getKind() : null;
 	}
 	
 	/**
@@ -96,8 +152,8 @@ public class ChessConsole {
 			in = input.nextLine().toLowerCase();
 		}
 		// conversion on the user input to ints corresponding to the possible range of the board array
-		Move m = new Move (new Position ((int)in.charAt(0)-CONST_FOR_ALPHANUMERIC_CONVERSION-1, Character.getNumericValue(in.charAt(1))-1), 
-			new Position ((int)in.charAt(3)-CONST_FOR_ALPHANUMERIC_CONVERSION-1, Character.getNumericValue(in.charAt(4))-1));
+		Move m = new Move (Position.of ((int)in.charAt(0)-CONST_FOR_ALPHANUMERIC_CONVERSION-1, Character.getNumericValue(in.charAt(1))-1), 
+			Position.of ((int)in.charAt(3)-CONST_FOR_ALPHANUMERIC_CONVERSION-1, Character.getNumericValue(in.charAt(4))-1));
 
 		return m;
 	}
@@ -123,6 +179,9 @@ public class ChessConsole {
 			case NO_AVAILABLE_MOVES:
 				System.out.println ("There's no available moves for "+ st.getPlayerColor() +". Draw.");
 				break;
+			case INSUFFICIENT_MATERIAL:
+				System.out.println ("Neither player has enough pieces left to checkmate. Draw.");
+				break;
 		}
 	}
 	
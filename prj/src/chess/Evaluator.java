@@ -0,0 +1,139 @@
+package chess;
+
+import static chess.Bitboards.*;
+import static chess.Board.*;
+
+/**
+ * Static evaluation of a {@link Board}: material plus piece-square tables, as in
+ * https://www.chessprogramming.org/Simplified_Evaluation_Function .
+ * The king switches to its endgame table once both queens are off or each side has little left.
+ */
+final class Evaluator {
+
+	private Evaluator(){}
+
+	/** centipawns, in Board kind order */
+	static final int[] VALUES = {0, 900, 500, 330, 320, 100};
+	static final int BISHOP_PAIR = 30;
+
+	// from white's point of view, a8 first
+	private static final int[] PAWN_TABLE = {
+			 0,  0,  0,  0,  0,  0,  0,  0,
+			50, 50, 50, 50, 50, 50, 50, 50,
+			10, 10, 20, 30, 30, 20, 10, 10,
+			 5,  5, 10, 25, 25, 10,  5,  5,
+			 0,  0,  0, 20, 20,  0,  0,  0,
+			 5, -5,-10,  0,  0,-10, -5,  5,
+			 5, 10, 10,-20,-20, 10, 10,  5,
+			 0,  0,  0,  0,  0,  0,  0,  0};
+	private static final int[] KNIGHT_TABLE = {
+			-50,-40,-30,-30,-30,-30,-40,-50,
+			-40,-20,  0,  0,  0,  0,-20,-40,
+			-30,  0, 10, 15, 15, 10,  0,-30,
+			-30,  5, 15, 20, 20, 15,  5,-30,
+			-30,  0, 15, 20, 20, 15,  0,-30,
+			-30,  5, 10, 15, 15, 10,  5,-30,
+			-40,-20,  0,  5,  5,  0,-20,-40,
+			-50,-40,-30,-30,-30,-30,-40,-50};
+	private static final int[] BISHOP_TABLE = {
+			-20,-10,-10,-10,-10,-10,-10,-20,
+			-10,  0,  0,  0,  0,  0,  0,-10,
+			-10,  0,  5, 10, 10,  5,  0,-10,
+			-10,  5,  5, 10, 10,  5,  5,-10,
+			-10,  0, 10, 10, 10, 10,  0,-10,
+			-10, 10, 10, 10, 10, 10, 10,-10,
+			-10,  5,  0,  0,  0,  0,  5,-10,
+			-20,-10,-10,-10,-10,-10,-10,-20};
+	private static final int[] ROOK_TABLE = {
+			 0,  0,  0,  0,  0,  0,  0,  0,
+			 5, 10, 10, 10, 10, 10, 10,  5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			 0,  0,  0,  5,  5,  0,  0,  0};
+	private static final int[] QUEEN_TABLE = {
+			-20,-10,-10, -5, -5,-10,-10,-20,
+			-10,  0,  0,  0,  0,  0,  0,-10,
+			-10,  0,  5,  5,  5,  5,  0,-10,
+			 -5,  0,  5,  5,  5,  5,  0, -5,
+			  0,  0,  5,  5,  5,  5,  0, -5,
+			-10,  5,  5,  5,  5,  5,  0,-10,
+			-10,  0,  5,  0,  0,  0,  0,-10,
+			-20,-10,-10, -5, -5,-10,-10,-20};
+	private static final int[] KING_TABLE = {
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-20,-30,-30,-40,-40,-30,-30,-20,
+			-10,-20,-20,-20,-20,-20,-20,-10,
+			 20, 20,  0,  0,  0,  0, 20, 20,
+			 20, 30, 10,  0,  0, 10, 30, 20};
+	private static final int[] KING_ENDGAME_TABLE = {
+			-50,-40,-30,-20,-20,-30,-40,-50,
+			-30,-20,-10,  0,  0,-10,-20,-30,
+			-30,-10, 20, 30, 30, 20,-10,-30,
+			-30,-10, 30, 40, 40, 30,-10,-30,
+			-30,-10, 30, 40, 40, 30,-10,-30,
+			-30,-10, 20, 30, 30, 20,-10,-30,
+			-30,-30,  0,  0,  0,  0,-30,-30,
+			-50,-30,-30,-30,-30,-30,-30,-50};
+
+	/** material and placement [color * 6 + kind][square], the king's middlegame one */
+	private static final int[][] PIECE_SQUARE = new int[12][64];
+	private static final int[][] KING_ENDGAME = new int[2][64];
+
+	static {
+		int[][] tables = {KING_TABLE, QUEEN_TABLE, ROOK_TABLE, BISHOP_TABLE, KNIGHT_TABLE, PAWN_TABLE};
+		for (int kind = KING; kind <= PAWN; kind++) {
+			for (int sq = 0; sq < 64; sq++) {
+				int white = (7 - rank(sq)) * 8 + file(sq), black = sq;
+				PIECE_SQUARE[kind][sq] = VALUES[kind] + tables[kind][white];
+				PIECE_SQUARE[6 + kind][sq] = VALUES[kind] + tables[kind][black];
+			}
+		}
+		for (int sq = 0; sq < 64; sq++) {
+			KING_ENDGAME[WHITE][sq] = KING_ENDGAME_TABLE[(7 - rank(sq)) * 8 + file(sq)];
+			KING_ENDGAME[BLACK][sq] = KING_ENDGAME_TABLE[sq];
+		}
+	}
+
+	/** @return the score of @param b in centipawns for the side to move */
+	static int evaluate(Board b) {
+		int score = 0;
+		for (int piece = 1; piece < 12; piece++) {
+			if (piece == 6) {
+				continue; // kings below
+			}
+			int sign = piece < 6 ? 1 : -1;
+			for (long bits = b.pieces[piece]; bits != 0; bits &= bits - 1) {
+				score += sign * PIECE_SQUARE[piece][Long.numberOfTrailingZeros(bits)];
+			}
+		}
+		if (Long.bitCount(b.bb(WHITE, BISHOP)) >= 2) {
+			score += BISHOP_PAIR;
+		}
+		if (Long.bitCount(b.bb(BLACK, BISHOP)) >= 2) {
+			score -= BISHOP_PAIR;
+		}
+		int wk = b.kingSquare(WHITE), bk = b.kingSquare(BLACK);
+		if (isEndgame(b)) {
+			score += KING_ENDGAME[WHITE][wk] - KING_ENDGAME[BLACK][bk];
+		} else {
+			score += PIECE_SQUARE[KING][wk] - PIECE_SQUARE[6 + KING][bk];
+		}
+		return b.side == WHITE ? score : -score;
+	}
+
+	/** no queens, or every side with a queen has at most one minor piece besides */
+	private static boolean isEndgame(Board b) {
+		for (int c = WHITE; c <= BLACK; c++) {
+			if (b.bb(c, QUEEN) != 0 && (b.bb(c, ROOK) != 0 || Long.bitCount(b.bb(c, BISHOP) | b.bb(c, KNIGHT)) > 1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,177 @@
+package chess;
+
+import static chess.Bitboards.*;
+import static chess.Board.*;
+
+/**
+ * Forsyth-Edwards Notation of positions: https://en.wikipedia.org/wiki/Forsyth%E2%80%93Edwards_Notation
+ * Castling rights of Chess960 setups are read in Shredder-FEN (the rooks' files, HAha) or X-FEN (KQkq unless there's
+ * another rook further out on the side) and written in X-FEN, which is plain FEN for the standard setup.
+ * The half-move clock is kept as counted by {@link State}; the full move number isn't kept anywhere
+ * and is written as 1.
+ */
+public final class Fen {
+
+	private Fen(){}
+
+	public static final String STARTPOS = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+	private static final String PIECES = "KQRBNPkqrbnp";
+
+	/**
+	 * @throws IllegalArgumentException if @param fen is not a position with one king of each color, no pawn on
+	 * the first or last rank and the king of the side not to move out of check
+	 */
+	public static State toState(String fen) {
+		return toBoard(fen).toState();
+	}
+
+	public static String of(State s) {
+		return of(new Board(s));
+	}
+
+	/**
+	 * @return the start position @param chess960 of Fischer Random Chess, numbered 0-959 as by Scharnagl
+	 * @throws IllegalArgumentException if it is out of range
+	 */
+	public static String chess960(int chess960) {
+		return Chess960.fen(chess960);
+	}
+
+	static Board toBoard(String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		if (fields.length < 2) {
+			throw new IllegalArgumentException("Bad FEN, expected at least placement and side to move: " + fen);
+		}
+		Board b = new Board();
+		int rank = 7, file = 0;
+		for (int i = 0; i < fields[0].length(); i++) {
+			char c = fields[0].charAt(i);
+			if (c == '/') {
+				if (file != 8 || rank == 0) {
+					throw new IllegalArgumentException("Bad FEN, rank " + (rank + 1) + " is not 8 squares: " + fen);
+				}
+				rank--;
+				file = 0;
+			} else if (c >= '1' && c <= '8') {
+				file += c - '0';
+			} else {
+				int piece = PIECES.indexOf(c);
+				if (piece < 0 || file > 7) {
+					throw new IllegalArgumentException("Bad FEN, unexpected '" + c + "': " + fen);
+				}
+				b.put(piece / 6, piece % 6, square(file++, rank));
+			}
+			if (file > 8) {
+				throw new IllegalArgumentException("Bad FEN, rank " + (rank + 1) + " is not 8 squares: " + fen);
+			}
+		}
+		if (rank != 0 || file != 8) {
+			throw new IllegalArgumentException("Bad FEN, the placement is not 8 ranks: " + fen);
+		}
+		if (Long.bitCount(b.bb(WHITE, KING)) != 1 || Long.bitCount(b.bb(BLACK, KING)) != 1) {
+			throw new IllegalArgumentException("Bad FEN, each player needs exactly one king: " + fen);
+		}
+		if (((b.bb(WHITE, PAWN) | b.bb(BLACK, PAWN)) & (RANK_1 | RANK_8)) != 0) {
+			throw new IllegalArgumentException("Bad FEN, a pawn on the first or last rank: " + fen);
+		}
+		if (fields[1].equals("w")) {
+			b.side = WHITE;
+		} else if (fields[1].equals("b")) {
+			b.side = BLACK;
+		} else {
+			throw new IllegalArgumentException("Bad FEN, side to move is not w or b: " + fen);
+		}
+		if (b.isAttacked(b.kingSquare(b.side ^ 1), b.side, b.occupied)) {
+			throw new IllegalArgumentException("Bad FEN, the side to move can take the other king: " + fen);
+		}
+		if (fields.length > 2 && !fields[2].equals("-")) {
+			// KQkq for the outermost rook on the side, or the rook's file as in Shredder-FEN and X-FEN (Chess960);
+			// rights without the king and rook on their back rank are dropped
+			for (char c : fields[2].toCharArray()) {
+				int color = Character.isUpperCase(c) ? WHITE : BLACK, back = color == WHITE ? 0 : 7;
+				char right = Character.toLowerCase(c);
+				int rook;
+				if (right == 'k' || right == 'q') {
+					rook = b.outermostRook(color, right == 'k');
+				} else if (right >= 'a' && right <= 'h') {
+					rook = square(right - 'a', back);
+				} else {
+					throw new IllegalArgumentException("Bad FEN, unexpected castling right '" + c + "': " + fen);
+				}
+				b.addCastlingRight(color, rook);
+			}
+		}
+		if (fields.length > 3 && !fields[3].equals("-")) {
+			int ep = parseSquare(fields[3]);
+			if (ep < 0) {
+				throw new IllegalArgumentException("Bad FEN, bad en passant square: " + fen);
+			}
+			// kept only if it can be taken, as Board does
+			int pawn = b.side == WHITE ? ep - 8 : ep + 8;
+			if (rank(ep) == (b.side == WHITE ? 5 : 2) && b.mailbox[pawn] == (b.side ^ 1) * 6 + PAWN
+					&& b.canCaptureEnPassant(ep, b.side)) {
+				b.epSquare = ep;
+			}
+		}
+		if (fields.length > 4) {
+			try {
+				b.halfmoveClock = Integer.parseInt(fields[4]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bad FEN, bad half-move clock: " + fen);
+			}
+		}
+		b.hash = b.computeHash();
+		return b;
+	}
+
+	static String of(Board b) {
+		StringBuilder res = new StringBuilder(90);
+		for (int rank = 7; rank >= 0; rank--) {
+			int empty = 0;
+			for (int file = 0; file < 8; file++) {
+				int piece = b.mailbox[square(file, rank)];
+				if (piece == EMPTY) {
+					empty++;
+					continue;
+				}
+				if (empty > 0) {
+					res.append(empty);
+					empty = 0;
+				}
+				res.append(PIECES.charAt(piece));
+			}
+			if (empty > 0) {
+				res.append(empty);
+			}
+			if (rank > 0) {
+				res.append('/');
+			}
+		}
+		res.append(b.side == WHITE ? " w " : " b ");
+		if (b.castling == 0) {
+			res.append('-');
+		} else {
+			String rights = "KQkq";
+			for (int i = 0; i < 4; i++) {
+				if ((b.castling & (1 << i)) != 0) {
+					// X-FEN: the file of a rook other than the outermost one
+					int rook = b.castlingRooks[i];
+					char file = (char) ((i < 2 ? 'A' : 'a') + file(rook));
+					res.append(rook == b.outermostRook(i / 2, (i & 1) == 0) ? rights.charAt(i) : file);
+				}
+			}
+		}
+		res.append(' ').append(b.epSquare == NO_SQUARE ? "-" : Moves.squareName(b.epSquare));
+		return res.append(' ').append(b.halfmoveClock).append(" 1").toString();
+	}
+
+	/** @return the square of a name like e4, -1 if it isn't one */
+	static int parseSquare(String name) {
+		if (name.length() != 2) {
+			return -1;
+		}
+		int file = name.charAt(0) - 'a', rank = name.charAt(1) - '1';
+		return file < 0 || file > 7 || rank < 0 || rank > 7 ? -1 : square(file, rank);
+	}
+}
@@ -0,0 +1,73 @@
+package chess;
+
+import static chess.Bitboards.DARK_SQUARES;
+import static chess.Board.*;
+
+import chess.State.GameOverReason;
+import games.PlayerColor;
+
+/**
+ * Decides whether the game is over for the player about to move: checkmate, stalemate
+ * (NO_AVAILABLE_MOVES) or a dead position with insufficient material.
+ *
+ * Instead of copying the state and trying every move of every piece, the detector runs the legal
+ * {@link MoveGenerator} (pinned pieces and check mask computed once) and stops at the first legal
+ * reply it finds.
+ */
+public final class GameEndDetector {
+
+	private GameEndDetector(){}
+
+	/**
+	 * @return the reason the game is over if it is @param toMove's turn in @param state, null if it goes on
+	 */
+	public static GameOverReason detect(State state, PlayerColor toMove) {
+		return detect(new Board(state, toMove));
+	}
+
+	/**
+	 * @return whether the player @param pc has at least one legal move in @param state
+	 */
+	public static boolean hasLegalMove(State state, PlayerColor pc) {
+		return hasLegalMove(new Board(state, pc));
+	}
+
+	public static boolean isInsufficientMaterial(State state) {
+		return insufficientMaterial(new Board(state));
+	}
+
+	static GameOverReason detect(Board b) {
+		long t0 = RulesMetrics.start();
+		try {
+			if (!hasLegalMove(b)) {
+				return b.inCheck() ? GameOverReason.CHECK_MATE : GameOverReason.NO_AVAILABLE_MOVES;
+			}
+			if (insufficientMaterial(b)) {
+				return GameOverReason.INSUFFICIENT_MATERIAL;
+			}
+			return null;
+		} finally {
+			RulesMetrics.stop(RulesMetrics.Op.GAME_END_DETECTION, t0);
+		}
+	}
+
+	/**
+	 * neither side can ever mate: bare kings, a single minor piece, or only bishops all standing on squares of one color
+	 */
+	static boolean insufficientMaterial(Board b) {
+		if ((b.bb(WHITE, PAWN) | b.bb(BLACK, PAWN) | b.bb(WHITE, ROOK) | b.bb(BLACK, ROOK)
+				| b.bb(WHITE, QUEEN) | b.bb(BLACK, QUEEN)) != 0) {
+			return false;
+		}
+		long knights = b.bb(WHITE, KNIGHT) | b.bb(BLACK, KNIGHT);
+		long bishops = b.bb(WHITE, BISHOP) | b.bb(BLACK, BISHOP);
+		if (Long.bitCount(knights | bishops) <= 1) {
+			return true;
+		}
+		return knights == 0 && ((bishops & DARK_SQUARES) == 0 || (bishops & ~DARK_SQUARES) == 0);
+	}
+
+	static boolean hasLegalMove(Board b) {
+		return MoveGenerator.hasLegalMove(b);
+	}
+}
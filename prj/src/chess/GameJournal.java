@@ -0,0 +1,557 @@
+package chess;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import chess.State.GameOverReason;
+import games.IllegalMoveException;
+import games.Move;
+import games.Position;
+
+/**
+ * Append-only journal of the moves accepted in many games, so that a crashed process can rebuild
+ * every game still being played.
+ *
+ * The journal is a directory of segment files, each game always appended to the same one (by its id).
+ * file layout: MAGIC, VERSION, RECORD_SIZE (ints), then records of RECORD_SIZE bytes:
+ * game id (long), ply (int), type, from square, to square, promoted PieceKind ordinal + 1 or 0 (bytes),
+ * CRC32 of the preceding bytes (int). Squares are Bitboards.square(row, col) of the {@link Position}s.
+ * The record starting a game is longer: its ply is the length of the start position's FEN (UTF-8), which
+ * follows the type and 3 zero bytes, before the CRC32. A game without one starts from the standard setup.
+ *
+ * Appending only copies the record to its segment's buffer. A single background thread writes the buffers
+ * of all the segments and syncs them to disk (group commit): every record appended while a sync runs
+ * goes with the next one, so a sync is shared by all the games which moved in the meantime.
+ * {@link #await(long)} blocks until the record of a ticket is on disk.
+ *
+ * Opening the journal recovers it: the segments are read and replayed through {@link MoveGenerator} and
+ * {@link Board} in parallel, a torn record at the end of a segment (a crash in the middle of a write) is cut off,
+ * and the games which haven't ended are available from {@link #games()}; {@link #hasEnded(long)} tells the ids
+ * of the others, which are not to be started again. A game which can't be replayed
+ * is reported on System.err and left out, the others are recovered all the same.
+ */
+public final class GameJournal implements Closeable {
+
+	static final int MAGIC = 0x43474a31; // "CGJ1"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 12;
+	public static final int RECORD_SIZE = 20;
+
+	/** a move accepted in the game */
+	static final byte MOVE = 1;
+	/** the game is over (or abandoned), it needn't be recovered */
+	static final byte END = 2;
+	/** the game starts (over) from the position of the FEN following */
+	static final byte START = 3;
+	/** longer FENs are taken for a torn record */
+	static final int MAX_FEN = 128;
+
+	/** segments of a new journal, enough for recovery to keep every core busy */
+	public static final int DEFAULT_SEGMENTS = 16;
+
+	private static final String PREFIX = "segment-", SUFFIX = ".log";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final PieceKind[] KINDS = PieceKind.values();
+
+	/** one game rebuilt from the journal */
+	public static final class Game {
+
+		private final long id;
+		private final String start;
+		private final int[] moves;
+		private final Board position;
+		private final GameOverReason end;
+
+		Game(long id, String start, int[] moves, Board position, GameOverReason end) {
+			this.id = id;
+			this.start = start;
+			this.moves = moves;
+			this.position = position;
+			this.end = end;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		/** @return a new State of the position the game started from */
+		public State getStart() {
+			return start == null ? new State() : Fen.toState(start);
+		}
+
+		/** the moves played, in order; the next move appended is ply getMoves().size() */
+		public List<Move> getMoves() {
+			List<Move> played = new ArrayList<Move>(moves.length);
+			for (int m : moves) {
+				played.add(new Move(position(m & 63), position(m >>> 6 & 63)));
+			}
+			return played;
+		}
+
+		/** @return the piece the move of @param ply promoted to, null if it didn't promote */
+		public PieceKind getPromotion(int ply) {
+			int promotion = moves[ply] >>> 12;
+			return promotion == 0 ? null : KINDS[promotion - 1];
+		}
+
+		/** @return a new State of the position after the moves, its game over reason set if the last move ended the game */
+		public State getState() {
+			State state = position.toState();
+			state.setGameOverReason(end);
+			return state;
+		}
+	}
+
+	/** the buffers and file of one segment; the buffer being filled is guarded by the segment itself */
+	private static final class Segment {
+
+		final FileChannel channel;
+		final CRC32 crc = new CRC32();
+		ByteBuffer filling = ByteBuffer.allocate(1 << 12);
+		ByteBuffer writing = ByteBuffer.allocate(1 << 12);
+
+		Segment(FileChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/** a game as read from a segment: its start and its moves, from | to << 6 | promotion << 12 per ply */
+	private static final class Plies {
+
+		String start;
+		int[] moves = new int[64];
+		int size;
+		/** why the game can't be recovered, null while it can */
+		String error;
+	}
+
+	private final Segment[] segments;
+	private final Map<Long, Game> games;
+	/** ids of the games whose END is in the journal, those recovered and those appended since */
+	private final Set<Long> ended;
+	private final Thread syncer;
+
+	private final Object lock = new Object();
+	/** the sync round taking the records appended now; guarded by lock, written only by the syncer */
+	private volatile long round = 1;
+	/** the last round on disk, guarded by lock */
+	private long synced;
+	/** records appended since the syncer last looked, guarded by lock */
+	private long pending;
+	private boolean closed;
+	private IOException failure;
+
+	private GameJournal(Segment[] segments, Map<Long, Game> games, Set<Long> ended) {
+		this.segments = segments;
+		this.games = games;
+		this.ended = ended;
+		syncer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				sync();
+			}
+		}, "journal-sync");
+		syncer.setDaemon(true);
+		syncer.start();
+	}
+
+	/**
+	 * opens the journal in @param dir, creating it with @param segments files if it has none
+	 * (an existing journal keeps its own number of segments), and recovers its games
+	 * with @param threads threads
+	 * @throws IOException if a segment can't be read or isn't a journal
+	 */
+	public static GameJournal open(File dir, int segments, int threads) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		String[] names = dir.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File d, String name) {
+				return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+			}
+		});
+		int n = names.length > 0 ? names.length : segments;
+		final Segment[] segs = new Segment[n];
+		try {
+			for (int i = 0; i < n; i++) {
+				segs[i] = new Segment(openSegment(new File(dir, String.format(PREFIX + "%03d" + SUFFIX, i))));
+			}
+			Set<Long> ended = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+			return new GameJournal(segs, recover(segs, threads, ended), ended);
+		} catch (IOException e) {
+			for (Segment s : segs) {
+				if (s != null) {
+					s.channel.close();
+				}
+			}
+			throw e;
+		}
+	}
+
+	private static FileChannel openSegment(File file) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		if (channel.size() < HEADER_SIZE) {
+			// new, or created by a crash before its header was written
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).flip();
+			channel.truncate(0);
+			channel.write(header, 0);
+			channel.force(true);
+		}
+		return channel;
+	}
+
+	/** the live games, by id, as recovered when the journal was opened */
+	public Map<Long, Game> games() {
+		return games;
+	}
+
+	/** whether game @param gameId has ended, and not been started over since */
+	public boolean hasEnded(long gameId) {
+		return ended.contains(gameId);
+	}
+
+	/**
+	 * appends the start of game @param gameId from the position of @param fen, before its first move;
+	 * appending it again starts the game over
+	 * @return the ticket to {@link #await(long)} for it to be on disk
+	 * @throws IllegalArgumentException if @param fen is not a valid position
+	 */
+	public long start(long gameId, String fen) {
+		Fen.toBoard(fen);
+		byte[] bytes = fen.trim().getBytes(UTF8);
+		if (bytes.length > MAX_FEN) {
+			throw new IllegalArgumentException("FEN longer than " + MAX_FEN + " bytes: " + fen);
+		}
+		ended.remove(gameId);
+		return append(gameId, bytes.length, START, 0, 0, 0, bytes);
+	}
+
+	/**
+	 * appends @param move, played at @param ply of game @param gameId and promoting to @param promotion
+	 * (null if it doesn't); the plies of a game are appended in order from 0
+	 * @return the ticket to {@link #await(long)} for it to be on disk
+	 */
+	public long append(long gameId, int ply, Move move, PieceKind promotion) {
+		Position from = move.getFrom(), to = move.getTo();
+		return append(gameId, ply, MOVE, Bitboards.square(from.getRow(), from.getCol()), Bitboards.square(to.getRow(), to.getCol()),
+				promotion == null ? 0 : promotion.ordinal() + 1, null);
+	}
+
+	/** appends the end of game @param gameId after @param plies moves, it won't be recovered any more */
+	public long end(long gameId, int plies) {
+		ended.add(gameId);
+		return append(gameId, plies, END, 0, 0, 0, null);
+	}
+
+	private long append(long gameId, int ply, byte type, int from, int to, int promotion, byte[] fen) {
+		Segment s = segments[segment(gameId, segments.length)];
+		int size = RECORD_SIZE + (fen == null ? 0 : fen.length);
+		long ticket;
+		synchronized (s) {
+			if (s.filling.remaining() < size) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(s.filling.capacity() * 2, s.filling.position() + size));
+				s.filling.flip();
+				s.filling = grown.put(s.filling);
+			}
+			s.filling.putLong(gameId).putInt(ply).put(type).put((byte) from).put((byte) to).put((byte) promotion);
+			if (fen != null) {
+				s.filling.put(fen);
+			}
+			s.crc.reset();
+			s.crc.update(s.filling.array(), s.filling.position() - (size - 4), size - 4);
+			s.filling.putInt((int) s.crc.getValue());
+			// read under the segment's lock: the syncer moves to the next round before taking the buffer
+			ticket = round;
+		}
+		synchronized (lock) {
+			if (closed) {
+				throw new IllegalStateException("the journal is closed");
+			}
+			if (pending++ == 0) {
+				lock.notifyAll();
+			}
+		}
+		return ticket;
+	}
+
+	/**
+	 * waits for the records appended up to @param ticket to be on disk
+	 * @throws IOException if the journal failed to write them
+	 */
+	public void await(long ticket) throws IOException {
+		synchronized (lock) {
+			while (synced < ticket && failure == null) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted waiting for the journal");
+				}
+			}
+			if (failure != null) {
+				throw new IOException("the journal failed", failure);
+			}
+		}
+	}
+
+	/** the syncer: one round at a time, writes what was appended to every segment and forces it to disk */
+	private void sync() {
+		while (true) {
+			long r;
+			synchronized (lock) {
+				while (pending == 0 && !closed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (pending == 0) {
+					return;
+				}
+				pending = 0;
+				r = round++;
+			}
+			try {
+				for (Segment s : segments) {
+					synchronized (s) {
+						ByteBuffer full = s.filling;
+						s.filling = s.writing;
+						s.writing = full;
+					}
+					ByteBuffer out = s.writing;
+					if (out.position() == 0) {
+						continue;
+					}
+					out.flip();
+					while (out.hasRemaining()) {
+						s.channel.write(out);
+					}
+					out.clear();
+					s.channel.force(false);
+				}
+			} catch (IOException e) {
+				synchronized (lock) {
+					failure = e;
+					lock.notifyAll();
+				}
+				return;
+			}
+			synchronized (lock) {
+				synced = r;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/** writes the records appended so far to disk and closes the segments */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			syncer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		IOException error = failure;
+		for (Segment s : segments) {
+			try {
+				s.channel.close();
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	static int segment(long gameId, int segments) {
+		return (int) ((gameId ^ (gameId >>> 32)) & Integer.MAX_VALUE) % segments;
+	}
+
+	/**
+	 * reads and replays the segments, one task per segment on @param threads threads
+	 * @param ended - gets the ids of the games which have ended
+	 */
+	private static Map<Long, Game> recover(Segment[] segments, int threads, final Set<Long> ended) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, segments.length)));
+		List<Future<Map<Long, Game>>> tasks = new ArrayList<Future<Map<Long, Game>>>();
+		try {
+			for (final Segment s : segments) {
+				tasks.add(pool.submit(new Callable<Map<Long, Game>>() {
+					@Override
+					public Map<Long, Game> call() throws IOException {
+						return replay(read(s.channel, ended));
+					}
+				}));
+			}
+			Map<Long, Game> games = new HashMap<Long, Game>();
+			for (Future<Map<Long, Game>> f : tasks) {
+				games.putAll(f.get());
+			}
+			return Collections.unmodifiableMap(games);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted recovering the journal");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("cannot recover the journal", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * the games not ended in the segment, by id; the ids of the ended ones go to @param ended.
+	 * The segment is cut after its last whole record with the right checksum and left positioned there.
+	 */
+	private static Map<Long, Plies> read(FileChannel channel, Set<Long> ended) throws IOException {
+		Map<Long, Plies> games = new HashMap<Long, Plies>();
+		ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE << 12);
+		buf.limit(HEADER_SIZE);
+		readFully(channel, buf, 0);
+		if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION || buf.getInt(8) != RECORD_SIZE) {
+			throw new IOException("not a game journal segment");
+		}
+		CRC32 crc = new CRC32();
+		long valid = HEADER_SIZE;
+		buf.clear();
+		scan:
+		while (channel.read(buf, valid + buf.position()) > 0) {
+			buf.flip();
+			while (buf.remaining() >= RECORD_SIZE) {
+				int at = buf.position();
+				int ply = buf.getInt(at + 8), type = buf.get(at + 12);
+				int size = RECORD_SIZE + (type == START ? ply : 0);
+				if (type == START && (ply < 0 || ply > MAX_FEN)) {
+					break scan;
+				}
+				if (buf.remaining() < size) {
+					break;
+				}
+				crc.reset();
+				crc.update(buf.array(), at, size - 4);
+				if ((int) crc.getValue() != buf.getInt(at + size - 4)) {
+					break scan;
+				}
+				Long id = buf.getLong(at);
+				Plies game = games.get(id);
+				if (type == END) {
+					games.remove(id);
+					ended.add(id);
+				} else if (type == START) {
+					ended.remove(id);
+					games.put(id, game = new Plies());
+					game.start = new String(buf.array(), at + 16, ply, UTF8);
+				} else {
+					if (game == null) {
+						games.put(id, game = new Plies());
+					}
+					if (game.error != null) {
+						// the rest of a game which can't be recovered
+					} else if (type != MOVE || ply != game.size) {
+						game.error = "record of type " + type + " at ply " + ply + " after " + game.size + " plies";
+					} else {
+						if (game.moves.length == game.size) {
+							game.moves = Arrays.copyOf(game.moves, game.size * 2);
+						}
+						game.moves[game.size++] = buf.get(at + 13) | buf.get(at + 14) << 6 | buf.get(at + 15) << 12;
+					}
+				}
+				valid += size;
+				buf.position(at + size);
+			}
+			buf.compact();
+		}
+		// a crash while writing leaves a partial record behind; the next append goes after the good ones
+		channel.truncate(valid);
+		channel.position(valid);
+		return games;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, pos);
+			if (n < 0) {
+				throw new EOFException("truncated segment header");
+			}
+			pos += n;
+		}
+	}
+
+	/**
+	 * replays every game of @param plies on a {@link Board}, by the rules {@link State#makeMove} took its moves with;
+	 * the games which can't be replayed are reported and left out
+	 */
+	private static Map<Long, Game> replay(Map<Long, Plies> plies) {
+		Map<Long, Game> games = new HashMap<Long, Game>();
+		Board standard = new Board(new State());
+		MoveList legal = new MoveList();
+		for (Map.Entry<Long, Plies> e : plies.entrySet()) {
+			long id = e.getKey();
+			Plies game = e.getValue();
+			int ply = 0;
+			try {
+				if (game.error != null) {
+					throw new IllegalMoveException(game.error);
+				}
+				Board b = game.start == null ? new Board(standard) : Fen.toBoard(game.start);
+				for (; ply < game.size; ply++) {
+					int m = game.moves[ply], promotion = m >>> 12;
+					if (promotion == 0 && isPromotion(b, m & 63, m >>> 6 & 63)) {
+						throw new IllegalMoveException("a promotion without the piece");
+					}
+					b.make(MoveGenerator.legalMove(b, legal, m & 63, m >>> 6 & 63, promotion == 0 ? Board.QUEEN : promotion - 1));
+				}
+				// the last move may have ended the game, the journal only knows once the end is appended
+				GameOverReason end = GameEndDetector.detect(b);
+				if (end == null && b.halfmoveClock >= State.FIFTY_MOVE_RULE_NUM) {
+					end = GameOverReason.FIFTY_MOVE_RULE;
+				}
+				games.put(id, new Game(id, game.start, Arrays.copyOf(game.moves, game.size), b, end));
+			} catch (IllegalMoveException | IllegalArgumentException x) {
+				System.err.println("GameJournal: game " + id + " not recovered, ply " + ply + ": " + x.getMessage());
+			}
+		}
+		return games;
+	}
+
+	/** whether the move from @param from to @param to on @param b is a pawn's reaching the last rank */
+	private static boolean isPromotion(Board b, int from, int to) {
+		return b.mailbox[from] == b.side * 6 + Board.PAWN && (Bitboards.rank(to) == 0 || Bitboards.rank(to) == 7);
+	}
+
+	private static Position position(int sq) {
+		return Position.of(Bitboards.file(sq), Bitboards.rank(sq));
+	}
+}
@@ -0,0 +1,88 @@
+package chess;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * All legal moves of a position in one call, instead of calling {@link State#validMoves} for every square
+ * and filtering out the moves leaving the own king in check.
+ *
+ * usage:
+ * <pre>
+ * MoveList moves = LegalMoves.legalMoves(state);
+ * for (int i = 0; i < moves.size(); i++) {
+ *     if (moves.givesCheck(i)) ... moves.getMove(i) ...
+ * }
+ * </pre>
+ */
+public final class LegalMoves {
+
+	private LegalMoves(){}
+
+	/** positions handed to one task of a batch, smaller batches are not split any further */
+	static final int BATCH_GRAIN = 64;
+
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+
+	/**
+	 * @return the legal moves of the player whose turn it is in @param position
+	 */
+	public static MoveList legalMoves(State position) {
+		return legalMoves(position, new MoveList());
+	}
+
+	/**
+	 * fills @param reuse (cleared first) with the legal moves of @param position
+	 * @return reuse
+	 */
+	public static MoveList legalMoves(State position, MoveList reuse) {
+		Board b = new Board(position);
+		MoveGenerator.generate(b, reuse);
+		MoveGenerator.markChecks(b, reuse);
+		return reuse;
+	}
+
+	/**
+	 * the legal moves of many positions at once, computed in parallel on all cores
+	 * @return one list per position, in the same order
+	 */
+	public static List<MoveList> legalMoves(List<State> positions) {
+		MoveList[] res = new MoveList[positions.size()];
+		State[] states = positions.toArray(new State[positions.size()]);
+		if (states.length <= BATCH_GRAIN) {
+			new Batch(states, res, 0, states.length).compute();
+		} else {
+			POOL.invoke(new Batch(states, res, 0, states.length));
+		}
+		return Arrays.asList(res);
+	}
+
+	private static final class Batch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final State[] states;
+		private final MoveList[] res;
+		private final int from, to;
+
+		Batch(State[] states, MoveList[] res, int from, int to) {
+			this.states = states;
+			this.res = res;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH_GRAIN) {
+				for (int i = from; i < to; i++) {
+					res[i] = legalMoves(states[i], new MoveList(64));
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Batch(states, res, from, mid), new Batch(states, res, mid, to));
+		}
+	}
+}
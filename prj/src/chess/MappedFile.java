@@ -0,0 +1,93 @@
+package chess;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file accessed through memory-mapped pages of up to 64 MB, so that files larger than one
+ * MappedByteBuffer (2 GB) can be read and written in place. A page is mapped on first use only as far
+ * as it is used, and mapped again twice as long when an access goes past it; the file grows with
+ * the mappings, to at most twice the bytes used.
+ * Values must not straddle a page boundary: callers keep records a power of two in size and aligned.
+ * Not safe for concurrent writes.
+ */
+final class MappedFile implements Closeable {
+
+	static final int PAGE_BITS = 26;
+	static final long PAGE_SIZE = 1L << PAGE_BITS;
+	/** the shortest mapping of a page */
+	static final long MIN_MAPPING = 1L << 16;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private MappedByteBuffer[] pages = new MappedByteBuffer[16];
+
+	MappedFile(File f) throws IOException {
+		file = new RandomAccessFile(f, "rw");
+		channel = file.getChannel();
+	}
+
+	long size() throws IOException {
+		return channel.size();
+	}
+
+	/** @return the page holding the @param bytes at @param pos, mapped at least as far as them */
+	private MappedByteBuffer page(long pos, int bytes) throws IOException {
+		int p = (int) (pos >>> PAGE_BITS);
+		if (p >= pages.length) {
+			MappedByteBuffer[] grown = new MappedByteBuffer[Math.max(pages.length * 2, p + 1)];
+			System.arraycopy(pages, 0, grown, 0, pages.length);
+			pages = grown;
+		}
+		long end = (pos & (PAGE_SIZE - 1)) + bytes;
+		MappedByteBuffer page = pages[p];
+		if (page == null || page.capacity() < end) {
+			long start = (long) p << PAGE_BITS;
+			long length = Math.max(MIN_MAPPING, Long.highestOneBit(end - 1) << 1);
+			if (page != null) {
+				length = Math.max(length, 2L * page.capacity());
+			}
+			// what the file has already is mapped whole; mapping read-write past the end grows the file
+			length = Math.min(PAGE_SIZE, Math.max(length, channel.size() - start));
+			pages[p] = page = channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+		}
+		return page;
+	}
+
+	long getLong(long pos) throws IOException {
+		return page(pos, 8).getLong((int) (pos & (PAGE_SIZE - 1)));
+	}
+
+	void putLong(long pos, long value) throws IOException {
+		page(pos, 8).putLong((int) (pos & (PAGE_SIZE - 1)), value);
+	}
+
+	int getInt(long pos) throws IOException {
+		return page(pos, 4).getInt((int) (pos & (PAGE_SIZE - 1)));
+	}
+
+	void putInt(long pos, int value) throws IOException {
+		page(pos, 4).putInt((int) (pos & (PAGE_SIZE - 1)), value);
+	}
+
+	/** writes the dirty pages to disk */
+	void force() {
+		for (MappedByteBuffer p : pages) {
+			if (p != null) {
+				p.force();
+			}
+		}
+	}
+
+	/** closes the file without forcing the pages, call {@link #force()} first to be sure they're on disk */
+	@Override
+	public void close() throws IOException {
+		pages = new MappedByteBuffer[0];
+		channel.close();
+		file.close();
+	}
+}
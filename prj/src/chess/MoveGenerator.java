@@ -0,0 +1,316 @@
+package chess;
+
+import static chess.Bitboards.*;
+import static chess.Board.*;
+
+import games.IllegalMoveException;
+
+/**
+ * Generates only legal moves of the side to move on a {@link Board}.
+ *
+ * The pinned pieces and the check mask (capture the checking piece or block its line) are computed
+ * up front, so a move is never tried on a copy to see whether it leaves the own king in check:
+ * a pinned piece moves only along the line through its king, the king only to squares
+ * not attacked once it has left its square, and in double check only the king moves at all.
+ * The one remaining case - en passant removing two pawns from the same rank - is verified
+ * against the resulting occupancy.
+ */
+final class MoveGenerator {
+
+	private MoveGenerator(){}
+
+	/** more legal moves than any position has (218 at most) */
+	static final int MAX_MOVES = 256;
+
+	private static final int[] PROMOTIONS = {QUEEN, ROOK, BISHOP, KNIGHT};
+
+	/**
+	 * adds the legal moves of the side to move to @param out (cleared first)
+	 * @return the number of moves
+	 */
+	static int generate(Board b, MoveList out) {
+		out.clear();
+		generate(b, out, false);
+		return out.size();
+	}
+
+	/**
+	 * @return whether the side to move has at least one legal move; stops at the first one
+	 */
+	static boolean hasLegalMove(Board b) {
+		return generate(b, null, true);
+	}
+
+	/**
+	 * @return the legal move of @param b from @param from to @param to, promoting to @param promotion;
+	 * castling goes from the king to its rook, or to the square the king lands on
+	 * @throws IllegalMoveException if there is none
+	 */
+	static int legalMove(Board b, MoveList legal, int from, int to, int promotion) {
+		MoveGenerator.generate(b, legal);
+		int castling = 0;
+		for (int i = 0; i < legal.size(); i++) {
+			int m = legal.get(i);
+			if (Moves.from(m) == from && Moves.to(m) == to && (!Moves.isPromotion(m) || Moves.promotion(m) == promotion)) {
+				return m;
+			}
+			if ((m & Moves.CASTLING) != 0 && Moves.from(m) == from && Moves.destination(m) == to) {
+				castling = m;
+			}
+		}
+		// castling named by the king's move rather than the king taking its rook, unless that's an ordinary king move
+		if (castling != 0) {
+			return castling;
+		}
+		throw new IllegalMoveException(Moves.squareName(from) + "-" + Moves.squareName(to) + " is not a legal move");
+	}
+
+	/**
+	 * @return the legal move of @param b named in coordinate notation like e2e4 or e7e8q
+	 * (a promotion without the piece is to a queen)
+	 * @throws IllegalMoveException if there is no such move
+	 */
+	static int parse(Board b, MoveList legal, String name) {
+		int from = name.length() >= 4 ? Fen.parseSquare(name.substring(0, 2)) : -1;
+		int to = name.length() >= 4 ? Fen.parseSquare(name.substring(2, 4)) : -1;
+		int promotion = name.length() > 4 ? "qrbn".indexOf(Character.toLowerCase(name.charAt(4))) + 1 : QUEEN;
+		if (from < 0 || to < 0 || promotion == 0 || name.length() > 5) {
+			throw new IllegalMoveException(name + " is not a move in coordinate notation");
+		}
+		return legalMove(b, legal, from, to, promotion);
+	}
+
+	/**
+	 * @param out - where the moves go, ignored if @param firstOnly
+	 * @return whether a legal move was found
+	 */
+	private static boolean generate(Board b, MoveList out, boolean firstOnly) {
+		int us = b.side, them = us ^ 1;
+		int k = b.kingSquare(us);
+		long own = b.colors[us], enemy = b.colors[them], occ = b.occupied;
+		if (k == NO_SQUARE) {
+			return own != 0; // not a real game position, nothing to check legality against
+		}
+		boolean found = false;
+
+		// king steps: the king itself must not shield the square it's moving to along a line
+		long targets = KING_ATTACKS[k] & ~own;
+		long withoutKing = occ ^ (1L << k);
+		while (targets != 0) {
+			int to = Long.numberOfTrailingZeros(targets);
+			targets &= targets - 1;
+			if (!b.isAttacked(to, them, withoutKing)) {
+				if (firstOnly) {
+					return true;
+				}
+				out.add(Moves.of(k, to, (enemy & (1L << to)) != 0 ? Moves.CAPTURE : 0));
+				found = true;
+			}
+		}
+
+		long checkers = b.attackersTo(k, occ) & enemy;
+		if (Long.bitCount(checkers) > 1) {
+			return found; // double check - only the king can move
+		}
+		// castling may be the only legal move in Chess960, with the rook landing where the king could step
+		if (checkers == 0 && generateCastling(b, firstOnly ? null : out, k)) {
+			if (firstOnly) {
+				return true;
+			}
+			found = true;
+		}
+		long mask = checkers == 0 ? ~0L : BETWEEN[k][Long.numberOfTrailingZeros(checkers)] | checkers;
+		long pinned = b.pinned(us);
+
+		long pieces = own & ~b.bb(us, PAWN) & ~b.bb(us, KING);
+		while (pieces != 0) {
+			int from = Long.numberOfTrailingZeros(pieces);
+			pieces &= pieces - 1;
+			long att;
+			switch (b.mailbox[from] - us * 6) {
+				case KNIGHT:
+					att = KNIGHT_ATTACKS[from];
+					break;
+				case BISHOP:
+					att = bishopAttacks(from, occ);
+					break;
+				case ROOK:
+					att = rookAttacks(from, occ);
+					break;
+				default:
+					att = queenAttacks(from, occ);
+			}
+			att &= ~own & mask;
+			if ((pinned & (1L << from)) != 0) {
+				att &= LINE[k][from];
+			}
+			if (att != 0 && firstOnly) {
+				return true;
+			}
+			while (att != 0) {
+				int to = Long.numberOfTrailingZeros(att);
+				att &= att - 1;
+				out.add(Moves.of(from, to, (enemy & (1L << to)) != 0 ? Moves.CAPTURE : 0));
+				found = true;
+			}
+		}
+
+		long pawns = b.bb(us, PAWN);
+		int up = us == WHITE ? 8 : -8;
+		int startRank = us == WHITE ? 1 : 6;
+		int lastRank = us == WHITE ? 7 : 0;
+		while (pawns != 0) {
+			int from = Long.numberOfTrailingZeros(pawns);
+			pawns &= pawns - 1;
+			long captures = PAWN_ATTACKS[us][from] & enemy;
+			long pushes = 0;
+			int one = from + up;
+			if ((occ & (1L << one)) == 0) {
+				pushes = 1L << one;
+				int two = one + up;
+				if (rank(from) == startRank && (occ & (1L << two)) == 0) {
+					pushes |= 1L << two;
+				}
+			}
+			long allowed = mask;
+			if ((pinned & (1L << from)) != 0) {
+				allowed &= LINE[k][from];
+			}
+			captures &= allowed;
+			pushes &= allowed;
+			if ((captures | pushes) != 0 && firstOnly) {
+				return true;
+			}
+			while (captures != 0) {
+				int to = Long.numberOfTrailingZeros(captures);
+				captures &= captures - 1;
+				addPawnMove(out, from, to, rank(to) == lastRank, Moves.CAPTURE);
+				found = true;
+			}
+			while (pushes != 0) {
+				int to = Long.numberOfTrailingZeros(pushes);
+				pushes &= pushes - 1;
+				addPawnMove(out, from, to, rank(to) == lastRank, to - from == 2 * up ? Moves.DOUBLE_PUSH : 0);
+				found = true;
+			}
+		}
+
+		if (b.epSquare != NO_SQUARE) {
+			int ep = b.epSquare;
+			int captured = ep - up;
+			long capturers = PAWN_ATTACKS[them][ep] & b.bb(us, PAWN);
+			while (capturers != 0) {
+				int from = Long.numberOfTrailingZeros(capturers);
+				capturers &= capturers - 1;
+				long after = (occ ^ (1L << from) ^ (1L << captured)) | (1L << ep);
+				if ((b.attackersTo(k, after) & enemy & ~(1L << captured)) == 0) {
+					if (firstOnly) {
+						return true;
+					}
+					out.add(Moves.of(from, ep, Moves.CAPTURE | Moves.EN_PASSANT));
+					found = true;
+				}
+			}
+		}
+		return found;
+	}
+
+	private static void addPawnMove(MoveList out, int from, int to, boolean promotes, int flags) {
+		if (promotes) {
+			for (int kind : PROMOTIONS) {
+				out.add(Moves.promotion(from, to, kind, flags));
+			}
+		} else {
+			out.add(Moves.of(from, to, flags));
+		}
+	}
+
+	/**
+	 * castling may only be done if the king and the rook involved have never moved, the squares the king and the rook
+	 * cross or land on are empty but for the two of them, the king is not in check and does not cross over or end on
+	 * an attacked square. The king lands on the g or c file and the rook next to it, as in Chess960; the attacks are
+	 * looked at without the rook, which might be shielding the king's squares along the back rank, and so on
+	 * the king's own square too: a king already on its target square may be uncovered by the rook leaving.
+	 * @param out - where the moves go, null to stop at the first one
+	 * @return whether there is one
+	 */
+	private static boolean generateCastling(Board b, MoveList out, int k) {
+		int us = b.side, them = us ^ 1;
+		boolean found = false;
+		for (int i = us * 2; i < us * 2 + 2; i++) {
+			if ((b.castling & (1 << i)) == 0) {
+				continue;
+			}
+			int rook = b.castlingRooks[i];
+			int kingTo = (k & ~7) + (rook > k ? 6 : 2), rookTo = rook > k ? kingTo - 1 : kingTo + 1;
+			long occ = b.occupied ^ (1L << k) ^ (1L << rook);
+			long kingPath = BETWEEN[k][kingTo] | (1L << kingTo);
+			if ((occ & (kingPath | BETWEEN[rook][rookTo] | (1L << rookTo))) != 0) {
+				continue;
+			}
+			boolean safe = true;
+			for (long path = kingPath | (1L << k); path != 0 && safe; path &= path - 1) {
+				safe = !b.isAttacked(Long.numberOfTrailingZeros(path), them, occ);
+			}
+			if (safe) {
+				if (out == null) {
+					return true;
+				}
+				out.add(Moves.of(k, rook, Moves.CASTLING));
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * sets the CHECK flag on the moves of @param moves which put the opponent's king in check:
+	 * directly, when the moved piece attacks the king from its new square, or discovered, when it
+	 * leaves the line between the king and one of our sliders. En passant and castling move two
+	 * pieces at once and are played on the board to find out.
+	 */
+	static void markChecks(Board b, MoveList moves) {
+		int us = b.side, them = us ^ 1;
+		int king = b.kingSquare(them);
+		if (king == NO_SQUARE) {
+			return;
+		}
+		long discoverers = b.blockers(them) & b.colors[us];
+		for (int i = 0; i < moves.size(); i++) {
+			int m = moves.get(i);
+			int from = Moves.from(m), to = Moves.to(m);
+			boolean check;
+			if ((m & (Moves.EN_PASSANT | Moves.CASTLING)) != 0) {
+				long undo = b.make(m);
+				check = b.isAttacked(king, us, b.occupied);
+				b.unmake(m, undo);
+			} else {
+				int kind = Moves.isPromotion(m) ? Moves.promotion(m) : b.mailbox[from] - us * 6;
+				long occ = (b.occupied ^ (1L << from)) | (1L << to);
+				check = (attacks(us, kind, to, occ) & (1L << king)) != 0
+						|| ((discoverers & (1L << from)) != 0 && (LINE[king][from] & (1L << to)) == 0);
+			}
+			if (check) {
+				moves.set(i, m | Moves.CHECK);
+			}
+		}
+	}
+
+	/** squares attacked by a piece of @param kind and @param color standing on @param sq */
+	static long attacks(int color, int kind, int sq, long occ) {
+		switch (kind) {
+			case PAWN:
+				return PAWN_ATTACKS[color][sq];
+			case KNIGHT:
+				return KNIGHT_ATTACKS[sq];
+			case BISHOP:
+				return bishopAttacks(sq, occ);
+			case ROOK:
+				return rookAttacks(sq, occ);
+			case QUEEN:
+				return queenAttacks(sq, occ);
+			default:
+				return KING_ATTACKS[sq];
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package chess;
+
+import games.Move;
+import games.Position;
+
+/**
+ * Growable list of moves packed into ints (see {@link Moves}), meant to be cleared and reused
+ * rather than allocated per position. Every move carries its capture, promotion and check flags;
+ * {@link #getMove(int)} converts it to a {@link Move} for callers of {@link State#makeMove(State, Move, boolean)}.
+ */
+public final class MoveList {
+
+	private int[] moves;
+	private int size;
+
+	public MoveList() {
+		this(MoveGenerator.MAX_MOVES);
+	}
+
+	public MoveList(int capacity) {
+		moves = new int[Math.max(1, capacity)];
+	}
+
+	void add(int move) {
+		if (size == moves.length) {
+			int[] grown = new int[size * 2];
+			System.arraycopy(moves, 0, grown, 0, size);
+			moves = grown;
+		}
+		moves[size++] = move;
+	}
+
+	void set(int i, int move) {
+		moves[i] = move;
+	}
+
+	/** @return the i-th move packed as described in {@link Moves} */
+	public int get(int i) {
+		return moves[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	boolean contains(int move) {
+		for (int i = 0; i < size; i++) {
+			if (moves[i] == move) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Position getFrom(int i) {
+		int sq = Moves.from(moves[i]);
+		return Moves.position(sq);
+	}
+
+	public Position getTo(int i) {
+		int sq = Moves.to(moves[i]);
+		return Moves.position(sq);
+	}
+
+	public Move getMove(int i) {
+		return Moves.toMove(moves[i]);
+	}
+
+	public boolean isCapture(int i) {
+		return Moves.isCapture(moves[i]);
+	}
+
+	public boolean isPromotion(int i) {
+		return Moves.isPromotion(moves[i]);
+	}
+
+	/** @return the kind the pawn is promoted to, null if the i-th move is not a promotion */
+	public PieceKind getPromotion(int i) {
+		return isPromotion(i) ? Board.pieceKind(Moves.promotion(moves[i])) : null;
+	}
+
+	public boolean givesCheck(int i) {
+		return Moves.givesCheck(moves[i]);
+	}
+
+	public boolean isCastling(int i) {
+		return (moves[i] & Moves.CASTLING) != 0;
+	}
+
+	public boolean isEnPassant(int i) {
+		return (moves[i] & Moves.EN_PASSANT) != 0;
+	}
+
+	/** moves in coordinate notation (e2e4, e7e8q), separated by spaces */
+	@Override
+	public String toString() {
+		StringBuilder res = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				res.append(' ');
+			}
+			res.append(Moves.toString(moves[i]));
+		}
+		return res.toString();
+	}
+}
@@ -0,0 +1,65 @@
+package chess;
+
+import static chess.Board.*;
+import static chess.Evaluator.VALUES;
+
+import java.util.Random;
+
+/**
+ * How a self-play game picks its next move among the legal ones
+ */
+enum MovePolicy {
+
+	/** uniformly random legal move */
+	RANDOM {
+		@Override
+		int choose(Board b, MoveList legal, Random rnd) {
+			return legal.get(rnd.nextInt(legal.size()));
+		}
+	},
+
+	/**
+	 * one-ply material greed: win the most material, don't leave the moved piece en prise,
+	 * prefer checks, break ties randomly
+	 */
+	GREEDY {
+		@Override
+		int choose(Board b, MoveList legal, Random rnd) {
+			MoveGenerator.markChecks(b, legal);
+			int us = b.side, them = us ^ 1;
+			int best = legal.get(0), bestScore = Integer.MIN_VALUE, ties = 0;
+			for (int i = 0; i < legal.size(); i++) {
+				int m = legal.get(i);
+				int from = Moves.from(m), to = Moves.destination(m);
+				int kind = b.mailbox[from] - us * 6;
+				int score = 0;
+				if ((m & Moves.EN_PASSANT) != 0) {
+					score += VALUES[PAWN];
+				} else if (Moves.isCapture(m)) {
+					score += VALUES[b.mailbox[to] % 6];
+				}
+				if (Moves.isPromotion(m)) {
+					kind = Moves.promotion(m);
+					score += VALUES[kind] - VALUES[PAWN];
+				}
+				if (b.isAttacked(to, them, b.occupied ^ (1L << from))) {
+					score -= VALUES[kind];
+				}
+				if (Moves.givesCheck(m)) {
+					score += 50;
+				}
+				if (score > bestScore) {
+					best = m;
+					bestScore = score;
+					ties = 1;
+				} else if (score == bestScore && rnd.nextInt(++ties) == 0) {
+					best = m;
+				}
+			}
+			return best;
+		}
+	};
+
+	/** @return a move out of the non-empty @param legal moves of @param b */
+	abstract int choose(Board b, MoveList legal, Random rnd);
+}
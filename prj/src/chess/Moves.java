@@ -0,0 +1,111 @@
+package chess;
+
+import games.Move;
+import games.Position;
+
+/**
+ * Moves of the {@link Board} packed into an int:
+ * bits 0-5 from square, 6-11 to square, 12-14 the PieceKind ordinal a pawn is promoted to (0 - no promotion),
+ * and the flags above them. Castling is encoded as the king taking its own rook, from the king's
+ * square to the rook's, which is unambiguous in Chess960 setups too; {@link #destination(int)} is where the king lands.
+ * Square numbers are rank * 8 + file, i.e. col * 8 + row of a {@link Position};
+ * {@link Move} and Position objects are only created at the API boundary by the conversions below.
+ */
+public final class Moves {
+
+	private Moves(){}
+
+	public static final int NONE = 0;
+
+	public static final int CAPTURE = 1 << 15;
+	public static final int EN_PASSANT = 1 << 16;
+	public static final int CASTLING = 1 << 17;
+	public static final int DOUBLE_PUSH = 1 << 18;
+	/** set by {@link MoveGenerator#markChecks(Board, MoveList)} only */
+	public static final int CHECK = 1 << 19;
+
+	static int of(int from, int to, int flags) {
+		return from | (to << 6) | flags;
+	}
+
+	static int promotion(int from, int to, int kind, int flags) {
+		return from | (to << 6) | (kind << 12) | flags;
+	}
+
+	public static int from(int move) {
+		return move & 63;
+	}
+
+	public static int to(int move) {
+		return (move >>> 6) & 63;
+	}
+
+	/** @return the Board kind the pawn is promoted to, 0 (KING) if the move is not a promotion */
+	public static int promotion(int move) {
+		return (move >>> 12) & 7;
+	}
+
+	public static boolean isCapture(int move) {
+		return (move & CAPTURE) != 0;
+	}
+
+	public static boolean givesCheck(int move) {
+		return (move & CHECK) != 0;
+	}
+
+	public static boolean isPromotion(int move) {
+		return promotion(move) != 0;
+	}
+
+	/** @return the square the moving piece lands on: the king's for castling (g or c file), to(move) otherwise */
+	public static int destination(int move) {
+		if ((move & CASTLING) == 0) {
+			return to(move);
+		}
+		return (from(move) & ~7) + (to(move) > from(move) ? 6 : 2);
+	}
+
+	/** whether @param move castles from the standard setup, the king on the e file and the rook in the corner */
+	static boolean isStandardCastling(int move) {
+		int rook = Bitboards.file(to(move));
+		return (move & CASTLING) != 0 && Bitboards.file(from(move)) == 4 && (rook == 0 || rook == 7);
+	}
+
+	/** @return the move in coordinate notation, castling as the king's move (e1g1) */
+	public static String toString(int move) {
+		return toString(move, false);
+	}
+
+	/**
+	 * @param chess960 - whether castling is written as the king taking its rook (e1h1), as the UCI_Chess960 option
+	 * of UCI wants, rather than as the king's move, which may be an ordinary king move in Chess960
+	 */
+	public static String toString(int move, boolean chess960) {
+		String res = squareName(from(move)) + squareName(chess960 ? to(move) : destination(move));
+		if (isPromotion(move)) {
+			res += "qrbn".charAt(promotion(move) - 1);
+		}
+		return res;
+	}
+
+	public static String squareName(int sq) {
+		return "" + (char) ('a' + Bitboards.file(sq)) + (char) ('1' + Bitboards.rank(sq));
+	}
+
+	public static int square(Position p) {
+		return Bitboards.square(p.getRow(), p.getCol());
+	}
+
+	public static Position position(int sq) {
+		return Position.of(Bitboards.file(sq), Bitboards.rank(sq));
+	}
+
+	/**
+	 * @return the from and to squares of @param move, which is all a Move carries; castling is the king's
+	 * two-square move from the standard setup, as the console takes it, and the king taking its rook otherwise
+	 */
+	public static Move toMove(int move) {
+		int to = isStandardCastling(move) ? destination(move) : to(move);
+		return new Move(position(from(move)), position(to));
+	}
+}
@@ -0,0 +1,212 @@
+package chess;
+
+import games.PlayerColor;
+import games.Position;
+
+/**
+ * Counts the leaf nodes of the legal move tree (https://www.chessprogramming.org/Perft)
+ * to check the {@link MoveGenerator} against the rules of {@link State}.
+ *
+ * usage: java chess.Perft [depth] [-compare]
+ * runs the positions of {@link #SUITE}; -compare also walks their trees by the rules of State alone
+ * (validMoves, the pieces moved on the State as the console game used to, isUnderRiskOfCapture), without
+ * MoveGenerator or Board, and reports the first position where both disagree.
+ */
+public final class Perft {
+
+	private Perft(){}
+
+	public static long perft(State state, int depth) {
+		return perft(new Board(state), depth);
+	}
+
+	static long perft(Board b, int depth) {
+		MoveList[] lists;
+		if (depth < SearchStack.SIZE) {
+			lists = SearchStack.current().moves;
+		} else {
+			lists = new MoveList[depth + 1];
+			for (int i = 0; i <= depth; i++) {
+				lists[i] = new MoveList();
+			}
+		}
+		return perft(b, depth, lists);
+	}
+
+	private static long perft(Board b, int depth, MoveList[] lists) {
+		MoveList moves = lists[depth];
+		int n = MoveGenerator.generate(b, moves);
+		if (depth <= 1) {
+			return depth == 1 ? n : 1;
+		}
+		long nodes = 0;
+		for (int i = 0; i < n; i++) {
+			int m = moves.get(i);
+			long undo = b.make(m);
+			nodes += perft(b, depth - 1, lists);
+			b.unmake(m, undo);
+		}
+		return nodes;
+	}
+
+	/**
+	 * perft through the original rules: every valid move of every piece is applied to a copy
+	 * of the state by {@link #play} and dropped if it leaves the own king under risk of capture.
+	 * A promotion is played as each of the 4 pieces. State.makeMove is not used, it takes its moves
+	 * from MoveGenerator, which would then be checked against itself.
+	 */
+	public static long perftLegacy(State state, int depth) {
+		if (depth == 0) {
+			return 1;
+		}
+		PlayerColor pc = state.getPlayerColor();
+		long nodes = 0;
+		for (int i = 0; i < State.BOARDLENGTH; i++) {
+			for (int j = 0; j < State.BOARDLENGTH; j++) {
+				Piece p = state.getCell(i, j);
+				if (p.getColor() != pc) {
+					continue;
+				}
+				Position from = Position.of(i, j);
+				// validMoves marks castling on the state it's given, so it looks at a copy
+				for (Position to : State.validMoves(new State(state), p.getKind(), from, pc, true, false)) {
+					// the king onto its own rook castles in Chess960
+					Piece target = state.getCell(to.getRow(), to.getCol());
+					if (target.getColor() == pc && !(p.getKind() == PieceKind.KING && target.getKind() == PieceKind.ROOK)) {
+						continue;
+					}
+					boolean promotes = p.getKind() == PieceKind.PAWN && (to.getCol() == 0 || to.getCol() == State.BOARDLENGTH - 1);
+					for (PieceKind promotion : promotes ? PROMOTIONS : NO_PROMOTION) {
+						State next = play(state, from, to, promotion);
+						if (State.isUnderRiskOfCapture(next, next.kingPosition(pc), pc.getOpposite())) {
+							continue;
+						}
+						nodes += perftLegacy(next, depth - 1);
+					}
+				}
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * @return a copy of @param state with the piece at @param from moved to @param to, one of its validMoves:
+	 * castling when the king goes two squares or onto its own rook (Chess960), en passant when a pawn goes
+	 * aside onto an empty square, @param promotion for a pawn reaching the last rank
+	 */
+	static State play(State state, Position from, Position to, PieceKind promotion) {
+		State next = new State(state);
+		Piece moving = next.getCell(from.getRow(), from.getCol());
+		Piece target = next.getCell(to.getRow(), to.getCol());
+		PlayerColor pc = moving.getColor();
+		boolean pawn = moving.getKind() == PieceKind.PAWN;
+		int col = from.getCol(), rookRow = -1;
+		if (moving.getKind() == PieceKind.KING && target.getColor() == pc && target.getKind() == PieceKind.ROOK) {
+			rookRow = to.getRow();
+		} else if (moving.getKind() == PieceKind.KING && Math.abs(to.getRow() - from.getRow()) == 2) {
+			rookRow = to.getRow() > from.getRow() ? state.getRookRowClose() : state.getRookRowFar();
+		}
+		boolean capture = rookRow < 0 && target.getColor() != null;
+		Piece moved = new Piece(pc, promotion != null ? promotion : moving.getKind(), true);
+		if (rookRow >= 0) {
+			// the king to the g (c) file and the rook next to it, whichever squares they come from
+			boolean close = rookRow > from.getRow();
+			next.getCell(rookRow, col).PieceRemove();
+			next.getCell(from.getRow(), col).PieceRemove();
+			next.getCell(close ? State.KINGROWCLOSE : State.KINGROWFAR, col).SetPiece(moved);
+			next.getCell(close ? State.ROOKTOCLOSE : State.ROOKTOFAR, col).SetPiece(new Piece(pc, PieceKind.ROOK, true));
+		} else {
+			if (pawn && to.getRow() != from.getRow() && target.getColor() == null) {
+				// en passant, the pawn taken stands beside the one taking it
+				next.getCell(to.getRow(), col).PieceRemove();
+				capture = true;
+			}
+			next.getCell(from.getRow(), col).PieceRemove();
+			next.getCell(to.getRow(), to.getCol()).SetPiece(moved);
+		}
+		next.setEmpassantPosition(pawn && Math.abs(to.getCol() - col) == 2 ? to : null);
+		next.movesWithoutCaptureNorPawn = pawn || capture ? 0 : state.movesWithoutCaptureNorPawn + 1;
+		next.setCastlingStatus(false);
+		next.setPlayerColor(pc.getOpposite());
+		return next;
+	}
+
+	private static final PieceKind[] PROMOTIONS = { PieceKind.QUEEN, PieceKind.ROOK, PieceKind.BISHOP, PieceKind.KNIGHT };
+	private static final PieceKind[] NO_PROMOTION = { null };
+
+	/**
+	 * @return null if both paths agree on @param state up to @param depth, otherwise a description
+	 * of the deepest position whose move counts differ
+	 */
+	public static String compare(State state, int depth) {
+		if (depth == 0) {
+			return null;
+		}
+		long fast = perft(state, depth), legacy = perftLegacy(state, depth);
+		if (fast == legacy) {
+			return null;
+		}
+		Board b = new Board(state);
+		MoveList moves = new MoveList();
+		MoveGenerator.generate(b, moves);
+		for (int i = 0; i < moves.size(); i++) {
+			int m = moves.get(i);
+			long undo = b.make(m);
+			State next = b.toState();
+			b.unmake(m, undo);
+			String deeper = compare(next, depth - 1);
+			if (deeper != null) {
+				return Moves.toString(m) + " " + deeper;
+			}
+		}
+		return "after the moves above: " + fast + " legal vs " + legacy + " by the rules of State\n" + state;
+	}
+
+	/**
+	 * the positions of https://www.chessprogramming.org/Perft_Results with their node counts from depth 1 on:
+	 * castling through and out of check, en passant (discovering a check too) and promotions, captures included;
+	 * then positions the generator once got wrong, counted by perftLegacy
+	 */
+	static final String[][] SUITE = {
+		{ Fen.STARTPOS, "20 400 8902 197281 4865609" },
+		{ "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", "48 2039 97862 4085603" },
+		{ "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", "14 191 2812 43238 674624" },
+		{ "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1", "6 264 9467 422333" },
+		{ "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", "44 1486 62379 2103487" },
+		{ "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10", "46 2079 89890 3894594" },
+		// Chess960: the king already on c1 castling long would be uncovered by its rook leaving b1
+		{ "7k/8/8/8/8/8/8/rRK5 w B - 0 1", "5 47 671 9604" },
+	};
+
+	/**
+	 * checks the counts of every position of the SUITE up to @param args[0] plies (as far as known),
+	 * with -compare against perftLegacy as well; exits with status 1 if one is wrong
+	 */
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		boolean compare = args.length > 1 && args[1].equals("-compare");
+		boolean ok = true;
+		for (String[] position : SUITE) {
+			System.out.println(position[0]);
+			State start = Fen.toBoard(position[0]).toState();
+			String[] expected = position[1].split(" ");
+			for (int d = 1; d <= Math.min(depth, expected.length); d++) {
+				long t0 = System.nanoTime();
+				long nodes = perft(start, d);
+				long nanos = Math.max(1, System.nanoTime() - t0);
+				boolean right = nodes == Long.parseLong(expected[d - 1]);
+				ok &= right;
+				System.out.println("perft(" + d + ") = " + nodes + "  " + (nodes * 1000000000L / nanos) + " nodes/s"
+						+ (right ? "" : "  expected " + expected[d - 1]));
+				if (compare) {
+					String diff = compare(start, d);
+					ok &= diff == null;
+					System.out.println(diff == null ? "  agrees with the rules of State" : "  differs: " + diff);
+				}
+			}
+		}
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+}
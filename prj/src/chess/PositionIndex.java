@@ -0,0 +1,506 @@
+package chess;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import games.IllegalMoveException;
+import games.Move;
+
+/**
+ * On-disk index of the positions reached in a game archive: for every position (by Zobrist hash)
+ * the number of games which reached it with their results, the games themselves, and what was
+ * played there with its results.
+ *
+ * Three files in the index directory, all read and written through memory-mapped pages ({@link MappedFile}):
+ * <pre>
+ * positions.tbl - open addressing hash table of positions: key, games, white wins, draws, black wins, newest posting
+ * moves.tbl     - the same table keyed by (position, move): how often the move was played and how it scored
+ * postings.dat  - per position a backwards linked list of (game id, ply, move) entries, appended to only
+ * </pre>
+ * Games can be appended at any time; the tables double when they get 70% full. A lookup is one probe
+ * in each table per legal move plus a walk over as many postings as requested.
+ * A position reached several times in one game counts once. Not safe for concurrent writes.
+ *
+ * The end of the postings and the number of games are kept in the header of positions.tbl as they change,
+ * the end before a new posting is linked, so a process dying between two flushes never has a later game
+ * overwrite postings already reachable from the table; the game it was adding may be counted in part.
+ * Only {@link #flush()} makes the files safe from a crash of the machine.
+ */
+public final class PositionIndex implements Closeable {
+
+	static final int MAGIC = 0x43504958; // "CPIX"
+	static final int VERSION = 1;
+	static final int HEADER = 64;
+	static final int SLOT = 32;
+	static final int POSTING = 16;
+	static final long INITIAL_CAPACITY = 1 << 16;
+	static final double MAX_LOAD = 0.7;
+
+	// slot fields
+	static final int KEY = 0, GAMES = 8, WHITE_WINS = 12, DRAWS = 16, BLACK_WINS = 20, HEAD = 24;
+	// header fields of positions.tbl besides those of SlotTable
+	static final int GAMES_INDEXED = 32, POSTINGS_END = 40;
+
+	private SlotTable positions, moves;
+	private final MappedFile postings;
+	private long postingsEnd;
+	private long gamesIndexed;
+
+	private PositionIndex(File dir) throws IOException {
+		positions = SlotTable.open(new File(dir, "positions.tbl"));
+		moves = SlotTable.open(new File(dir, "moves.tbl"));
+		postings = new MappedFile(new File(dir, "postings.dat"));
+		gamesIndexed = positions.data.getLong(GAMES_INDEXED);
+		postingsEnd = Math.max(HEADER, positions.data.getLong(POSTINGS_END));
+	}
+
+	/**
+	 * opens the index in @param dir, creating an empty one if there is none
+	 */
+	public static PositionIndex open(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		return new PositionIndex(dir);
+	}
+
+	public long getGamesIndexed() {
+		return gamesIndexed;
+	}
+
+	public long getPositionCount() {
+		return positions.size;
+	}
+
+	/**
+	 * appends a game played from the standard start position.
+	 * games.Move carries no promotion piece, pawns reaching the back rank are taken to become queens.
+	 * @param result - 1 if white won, 0 for a draw, -1 if black won
+	 * @throws IllegalMoveException if a move is not legal
+	 */
+	public void addGame(int gameId, List<Move> game, int result) throws IOException {
+		Board b = new Board(new State());
+		MoveList legal = new MoveList();
+		int[] packed = new int[game.size()];
+		for (int i = 0; i < packed.length; i++) {
+			Move m = game.get(i);
+			packed[i] = MoveGenerator.legalMove(b, legal, Moves.square(m.getFrom()), Moves.square(m.getTo()), Board.QUEEN);
+			b.make(packed[i]);
+		}
+		addGame(gameId, new Board(new State()), packed, packed.length, result);
+	}
+
+	/** appends a game of @param n legal moves (as generated for the boards along the way) starting at @param start */
+	void addGame(int gameId, Board start, int[] game, int n, int result) throws IOException {
+		Board b = new Board(start);
+		long[] seen = new long[n + 1];
+		for (int ply = 0; ply <= n; ply++) {
+			long key = key(b.hash);
+			boolean repeated = false;
+			for (int i = 0; i < ply && !repeated; i++) {
+				repeated = seen[i] == key;
+			}
+			seen[ply] = key;
+			int move = ply < n ? game[ply] & 0x7FFF : 0;
+			if (!repeated) {
+				if (positions.needsGrowth()) {
+					positions = positions.grow();
+				}
+				long slot = positions.insert(key);
+				count(positions, slot, result);
+				long posting = postingsEnd;
+				postings.putInt(posting, gameId);
+				postings.putInt(posting + 4, (ply << 16) | move);
+				postings.putLong(posting + 8, positions.data.getLong(slot + HEAD));
+				postingsEnd += POSTING;
+				positions.data.putLong(POSTINGS_END, postingsEnd);
+				positions.data.putLong(slot + HEAD, posting);
+				if (ply < n) {
+					if (moves.needsGrowth()) {
+						moves = moves.grow();
+					}
+					count(moves, moves.insert(moveKey(key, move)), result);
+				}
+			}
+			if (ply < n) {
+				b.make(game[ply]);
+			}
+		}
+		gamesIndexed++;
+		positions.data.putLong(GAMES_INDEXED, gamesIndexed);
+	}
+
+	private static void count(SlotTable t, long slot, int result) throws IOException {
+		int field = result > 0 ? WHITE_WINS : result < 0 ? BLACK_WINS : DRAWS;
+		t.data.putInt(slot + GAMES, t.data.getInt(slot + GAMES) + 1);
+		t.data.putInt(slot + field, t.data.getInt(slot + field) + 1);
+	}
+
+	/** 0 marks an empty slot */
+	private static long key(long hash) {
+		return hash == 0 ? 1 : hash;
+	}
+
+	private static long moveKey(long positionKey, int move) {
+		long h = (positionKey ^ (move + 1L) * 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+		return key(h ^ (h >>> 31));
+	}
+
+	/**
+	 * @return what is known about @param position, null if no indexed game reached it
+	 */
+	public PositionStats lookup(State position) throws IOException {
+		Board b = new Board(position);
+		long key = key(b.hash);
+		long slot = positions.find(key);
+		if (slot < 0) {
+			return null;
+		}
+		PositionStats res = new PositionStats(positions, slot);
+		MoveList legal = new MoveList();
+		MoveGenerator.generate(b, legal);
+		for (int i = 0; i < legal.size(); i++) {
+			int m = legal.get(i);
+			long ms = moves.find(moveKey(key, m & 0x7FFF));
+			if (ms >= 0) {
+				res.moves.add(new MoveStats(moves, ms, legal, i));
+			}
+		}
+		Collections.sort(res.moves);
+		return res;
+	}
+
+	/**
+	 * @return ids of up to @param limit games which reached @param position, the most recently added first
+	 */
+	public int[] games(State position, int limit) throws IOException {
+		long slot = positions.find(key(new Board(position).hash));
+		if (slot < 0) {
+			return new int[0];
+		}
+		int n = (int) Math.min(limit, positions.data.getInt(slot + GAMES) & 0xFFFFFFFFL);
+		int[] res = new int[n];
+		long p = positions.data.getLong(slot + HEAD);
+		for (int i = 0; i < n && p != 0; i++) {
+			res[i] = postings.getInt(p);
+			p = postings.getLong(p + 8);
+		}
+		return res;
+	}
+
+	/** writes the counters and all mapped pages to disk */
+	public void flush() throws IOException {
+		positions.writeHeader();
+		moves.writeHeader();
+		positions.data.force();
+		moves.data.force();
+		postings.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		positions.close();
+		moves.close();
+		postings.close();
+	}
+
+	/**
+	 * games, results and moves played in one position; scores are from white's point of view
+	 */
+	public static final class PositionStats {
+		private final int games, whiteWins, draws, blackWins;
+		private final List<MoveStats> moves = new ArrayList<MoveStats>();
+
+		PositionStats(SlotTable t, long slot) throws IOException {
+			games = t.data.getInt(slot + GAMES);
+			whiteWins = t.data.getInt(slot + WHITE_WINS);
+			draws = t.data.getInt(slot + DRAWS);
+			blackWins = t.data.getInt(slot + BLACK_WINS);
+		}
+
+		public int getGames() {
+			return games;
+		}
+
+		public int getWhiteWins() {
+			return whiteWins;
+		}
+
+		public int getDraws() {
+			return draws;
+		}
+
+		public int getBlackWins() {
+			return blackWins;
+		}
+
+		public double getScore() {
+			return games == 0 ? 0 : (whiteWins + draws / 2.0) / games;
+		}
+
+		/** the moves played here, most frequent first */
+		public List<MoveStats> getMoves() {
+			return moves;
+		}
+
+		@Override
+		public String toString() {
+			return games + " games, +" + whiteWins + " =" + draws + " -" + blackWins;
+		}
+	}
+
+	public static final class MoveStats implements Comparable<MoveStats> {
+		private final Move move;
+		private final PieceKind promotion;
+		private final String name;
+		private final int games, whiteWins, draws, blackWins;
+
+		MoveStats(SlotTable t, long slot, MoveList legal, int i) throws IOException {
+			move = legal.getMove(i);
+			promotion = legal.getPromotion(i);
+			name = Moves.toString(legal.get(i));
+			games = t.data.getInt(slot + GAMES);
+			whiteWins = t.data.getInt(slot + WHITE_WINS);
+			draws = t.data.getInt(slot + DRAWS);
+			blackWins = t.data.getInt(slot + BLACK_WINS);
+		}
+
+		public Move getMove() {
+			return move;
+		}
+
+		/** @return the piece the pawn was promoted to, null if the move is not a promotion */
+		public PieceKind getPromotion() {
+			return promotion;
+		}
+
+		public int getGames() {
+			return games;
+		}
+
+		public int getWhiteWins() {
+			return whiteWins;
+		}
+
+		public int getDraws() {
+			return draws;
+		}
+
+		public int getBlackWins() {
+			return blackWins;
+		}
+
+		public double getScore() {
+			return games == 0 ? 0 : (whiteWins + draws / 2.0) / games;
+		}
+
+		@Override
+		public int compareTo(MoveStats o) {
+			return o.games < games ? -1 : o.games == games ? 0 : 1;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + games + " games, +" + whiteWins + " =" + draws + " -" + blackWins;
+		}
+	}
+
+	/**
+	 * open addressing (linear probing) table of SLOT-sized records keyed by a non-zero long,
+	 * header: MAGIC, VERSION, capacity, size
+	 */
+	static final class SlotTable implements Closeable {
+		final File file;
+		final MappedFile data;
+		final long capacity;
+		long size;
+
+		private SlotTable(File file, long capacity) throws IOException {
+			this.file = file;
+			this.data = new MappedFile(file);
+			if (data.size() >= HEADER && data.getInt(0) == MAGIC) {
+				if (data.getInt(4) != VERSION) {
+					throw new IOException(file + " has an unsupported version");
+				}
+				this.capacity = data.getLong(8);
+				this.size = data.getLong(16);
+			} else {
+				this.capacity = capacity;
+				data.putInt(0, MAGIC);
+				data.putInt(4, VERSION);
+				writeHeader();
+			}
+		}
+
+		static SlotTable open(File file) throws IOException {
+			return new SlotTable(file, INITIAL_CAPACITY);
+		}
+
+		void writeHeader() throws IOException {
+			data.putLong(8, capacity);
+			data.putLong(16, size);
+		}
+
+		private long slot(long index) {
+			return HEADER + index * SLOT;
+		}
+
+		/** @return the offset of the slot holding @param key, -1 if there is none */
+		long find(long key) throws IOException {
+			long mask = capacity - 1;
+			for (long i = key & mask; ; i = (i + 1) & mask) {
+				long k = data.getLong(slot(i));
+				if (k == key) {
+					return slot(i);
+				}
+				if (k == 0) {
+					return -1;
+				}
+			}
+		}
+
+		/** @return the offset of the slot holding @param key, taking an empty one if it's new */
+		long insert(long key) throws IOException {
+			long mask = capacity - 1;
+			for (long i = key & mask; ; i = (i + 1) & mask) {
+				long k = data.getLong(slot(i));
+				if (k == key) {
+					return slot(i);
+				}
+				if (k == 0) {
+					data.putLong(slot(i), key);
+					// kept on the page at once, the table must not fill up unseen after a crash
+					data.putLong(16, ++size);
+					return slot(i);
+				}
+			}
+		}
+
+		boolean needsGrowth() {
+			return size + 1 > capacity * MAX_LOAD;
+		}
+
+		/**
+		 * @return a table of twice the capacity holding the same records, replacing this one on disk;
+		 * the new table is on disk before it takes the place of the old one, in one atomic move
+		 */
+		SlotTable grow() throws IOException {
+			File tmp = new File(file.getPath() + ".tmp");
+			if (tmp.exists() && !tmp.delete()) {
+				throw new IOException("Cannot delete " + tmp);
+			}
+			SlotTable bigger = new SlotTable(tmp, capacity * 2);
+			for (long i = 0; i < capacity; i++) {
+				long k = data.getLong(slot(i));
+				if (k != 0) {
+					long to = bigger.insert(k);
+					for (int f = 8; f < SLOT; f += 8) {
+						bigger.data.putLong(to + f, data.getLong(slot(i) + f));
+					}
+				}
+			}
+			bigger.writeHeader();
+			for (int f = 24; f < HEADER; f += 8) {
+				bigger.data.putLong(f, data.getLong(f)); // header fields kept by the owner
+			}
+			bigger.data.force();
+			close();
+			bigger.data.close();
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			return new SlotTable(file, capacity * 2);
+		}
+
+		@Override
+		public void close() throws IOException {
+			writeHeader();
+			data.close();
+		}
+	}
+
+	/**
+	 * usage:
+	 * java chess.PositionIndex build indexDir shard...  - adds the games of self-play shards
+	 * java chess.PositionIndex query indexDir [e2e4 e7e5 ...]  - stats of the position after the moves
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: PositionIndex build|query indexDir ...");
+			return;
+		}
+		PositionIndex index = open(new File(args[1]));
+		try {
+			if (args[0].equals("build")) {
+				long t0 = System.nanoTime();
+				for (int i = 2; i < args.length; i++) {
+					index.addShard(new File(args[i]));
+				}
+				System.out.printf("%d games, %d positions indexed, %.1f s%n", index.getGamesIndexed(),
+						index.getPositionCount(), (System.nanoTime() - t0) / 1e9);
+			} else {
+				Board b = new Board(new State());
+				MoveList legal = new MoveList();
+				for (int i = 2; i < args.length; i++) {
+					b.make(MoveGenerator.parse(b, legal, args[i]));
+				}
+				State position = b.toState();
+				index.lookup(position); // warm up the pages and the code
+				long t0 = System.nanoTime();
+				PositionStats stats = index.lookup(position);
+				int[] games = index.games(position, 10);
+				long micros = (System.nanoTime() - t0) / 1000;
+				System.out.println(stats == null ? "never reached" : stats.toString());
+				if (stats != null) {
+					for (MoveStats ms : stats.getMoves()) {
+						System.out.println("  " + ms);
+					}
+				}
+				StringBuilder ids = new StringBuilder();
+				for (int g : games) {
+					ids.append(' ').append(g);
+				}
+				System.out.println("games:" + ids + "  (" + micros + " us)");
+			}
+		} finally {
+			index.close();
+		}
+	}
+
+	/** adds the games of a self-play shard, numbering them after the games already indexed */
+	void addShard(File shard) throws IOException {
+		ShardReader in = new ShardReader(shard);
+		try {
+			Board b = new Board(new State());
+			MoveList legal = new MoveList();
+			int[] game = new int[1024];
+			int n = 0, result = 0;
+			while (in.next()) {
+				if (in.getPly() == 0 && n > 0) {
+					addGame((int) gamesIndexed, new Board(new State()), game, n, result);
+					b = new Board(new State());
+					n = 0;
+				}
+				int m = in.getPackedMove();
+				if (n == game.length) {
+					int[] grown = new int[n * 2];
+					System.arraycopy(game, 0, grown, 0, n);
+					game = grown;
+				}
+				game[n] = MoveGenerator.legalMove(b, legal, Moves.from(m), Moves.to(m), Moves.promotion(m));
+				b.make(game[n++]);
+				result = in.getResult();
+			}
+			if (n > 0) {
+				addGame((int) gamesIndexed, new Board(new State()), game, n, result);
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
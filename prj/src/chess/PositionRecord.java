@@ -0,0 +1,100 @@
+package chess;
+
+import chess.State.GameOverReason;
+
+/**
+ * Fixed-size binary record of one self-play position: the board, the move played in it and how the game ended.
+ * All records are {@link #SIZE} bytes, so a decompressed block is an array of records which can be read in place.
+ *
+ * layout:
+ * <pre>
+ *  0-31  piece on every square, one nibble each (square 2k in the low nibble of byte k): color * 6 + kind + 1, 0 if empty
+ *  32    side to move (bit 0, 1 - black) | castling rights &lt;&lt; 1
+ *  33    en passant square, 0xFF if there is none
+ *  34    moves without capture nor pawn move (capped at 255)
+ *  35-36 the move played: from | to &lt;&lt; 6 | promotion kind &lt;&lt; 12 (big endian), without the flags of {@link Moves};
+ *        castling is the king taking its own rook (e1h1, not e1g1) in every setup, as MoveGenerator.legalMove takes it
+ *  37-38 ply of the position in its game (big endian)
+ *  39    result for white (bits 0-1: 0 - lost, 1 - draw, 2 - won) | (GameOverReason ordinal + 1) &lt;&lt; 2, 0 if the game was cut
+ * </pre>
+ */
+final class PositionRecord {
+
+	private PositionRecord(){}
+
+	static final int SIZE = 40;
+
+	static final int RESULT_BLACK_WINS = 0, RESULT_DRAW = 1, RESULT_WHITE_WINS = 2;
+
+	private static final GameOverReason[] REASONS = GameOverReason.values();
+
+	/** writes @param b and the @param move played in it to @param out at @param offset, leaving the outcome empty */
+	static void write(Board b, int move, int ply, byte[] out, int offset) {
+		for (int i = 0; i < 32; i++) {
+			out[offset + i] = (byte) ((b.mailbox[2 * i] + 1) | ((b.mailbox[2 * i + 1] + 1) << 4));
+		}
+		out[offset + 32] = (byte) (b.side | (b.castling << 1));
+		out[offset + 33] = (byte) (b.epSquare == Board.NO_SQUARE ? 0xFF : b.epSquare);
+		out[offset + 34] = (byte) Math.min(255, b.halfmoveClock);
+		int packed = move & 0x7FFF;
+		out[offset + 35] = (byte) (packed >>> 8);
+		out[offset + 36] = (byte) packed;
+		out[offset + 37] = (byte) (ply >>> 8);
+		out[offset + 38] = (byte) ply;
+		out[offset + 39] = 0;
+	}
+
+	static void writeOutcome(byte[] out, int offset, int result, GameOverReason reason) {
+		out[offset + 39] = (byte) (result | ((reason == null ? 0 : reason.ordinal() + 1) << 2));
+	}
+
+	static int piece(byte[] in, int offset, int sq) {
+		int b = in[offset + (sq >>> 1)];
+		return ((sq & 1) == 0 ? b & 15 : (b >>> 4) & 15) - 1;
+	}
+
+	static int side(byte[] in, int offset) {
+		return in[offset + 32] & 1;
+	}
+
+	static int move(byte[] in, int offset) {
+		return ((in[offset + 35] & 0xFF) << 8) | (in[offset + 36] & 0xFF);
+	}
+
+	static int ply(byte[] in, int offset) {
+		return ((in[offset + 37] & 0xFF) << 8) | (in[offset + 38] & 0xFF);
+	}
+
+	static int result(byte[] in, int offset) {
+		return in[offset + 39] & 3;
+	}
+
+	/** @return the reason the game ended, null if it was cut at the ply limit */
+	static GameOverReason reason(byte[] in, int offset) {
+		int r = (in[offset + 39] & 0xFF) >>> 2;
+		return r == 0 ? null : REASONS[r - 1];
+	}
+
+	static Board toBoard(byte[] in, int offset) {
+		Board b = new Board();
+		for (int sq = 0; sq < 64; sq++) {
+			int p = piece(in, offset, sq);
+			if (p != Board.EMPTY) {
+				b.put(p / 6, p % 6, sq);
+			}
+		}
+		b.side = side(in, offset);
+		// the rights are for the outermost rooks, the only ones of a start position (Chess960 included)
+		int rights = (in[offset + 32] >>> 1) & 15;
+		for (int i = 0; i < 4; i++) {
+			if ((rights & (1 << i)) != 0) {
+				b.addCastlingRight(i / 2, b.outermostRook(i / 2, (i & 1) == 0));
+			}
+		}
+		int ep = in[offset + 33] & 0xFF;
+		b.epSquare = ep == 0xFF ? Board.NO_SQUARE : ep;
+		b.halfmoveClock = in[offset + 34] & 0xFF;
+		b.hash = b.computeHash();
+		return b;
+	}
+}
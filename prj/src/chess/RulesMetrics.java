@@ -0,0 +1,283 @@
+package chess;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+
+/**
+ * Call counters and latency histograms for the hot operations of the rules engine ({@link State}).
+ *
+ * Recording is compiled in only if the JVM is started with <code>-Dchess.metrics=true</code>:
+ * ENABLED is a static final, so with the property absent {@link #start()} and {@link #stop(Op, long)}
+ * are folded away by the JIT and cost nothing. When switched on, the counters are striped per thread
+ * so that many games checked in parallel don't fight over the same cache line, the numbers are
+ * exposed through JMX (see {@link RulesMetricsMXBean}) and can be dumped periodically as text or JSON.
+ *
+ * usage around an operation:
+ * <pre>
+ * long t0 = RulesMetrics.start();
+ * try { ... } finally { RulesMetrics.stop(RulesMetrics.Op.VALID_MOVES, t0); }
+ * </pre>
+ */
+public final class RulesMetrics implements RulesMetricsMXBean {
+
+	/**
+	 * operations of the rules engine being measured
+	 */
+	public static enum Op {
+		STATE_COPY,
+		MAKE_MOVE,
+		VALID_MOVES,
+		UNDER_RISK_OF_CAPTURE,
+		NO_MORE_MOVES,
+		WAYS_TO_AVOID_MATE,
+		GAME_END_DETECTION,
+	}
+
+	static final boolean ENABLED = Boolean.getBoolean("chess.metrics");
+	static final String OBJECT_NAME = "chess:type=RulesMetrics";
+
+	private static final Op[] OPS = Op.values();
+	private static final RulesMetrics INSTANCE = new RulesMetrics();
+	private static volatile boolean recording = true;
+
+	/** the one thread of every periodic dump */
+	private static final ScheduledExecutorService DUMPER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "rules-metrics-dump");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	static {
+		if (ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+			} catch (Exception e) {
+				// metrics stay readable through snapshotText()/snapshotJson() even without JMX
+				System.err.println("RulesMetrics: JMX registration failed: " + e);
+			}
+		}
+	}
+
+	private final Histogram[] histograms = new Histogram[OPS.length];
+
+	private RulesMetrics() {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new Histogram();
+		}
+	}
+
+	public static RulesMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the start timestamp to be passed to {@link #stop(Op, long)}, 0 if the metrics are off
+	 */
+	public static long start() {
+		return ENABLED && recording ? System.nanoTime() : 0L;
+	}
+
+	public static void stop(Op op, long startNanos) {
+		if (ENABLED && startNanos != 0L) {
+			INSTANCE.histograms[op.ordinal()].record(System.nanoTime() - startNanos);
+		}
+	}
+
+	public static long count(Op op) {
+		return INSTANCE.histograms[op.ordinal()].count();
+	}
+
+	/**
+	 * prints a snapshot to @param out every @param periodMillis, on a daemon thread shared by all the dumps
+	 * @return the handle to cancel the dumping with
+	 */
+	public static ScheduledFuture<?> dumpPeriodically(final PrintStream out, long periodMillis, final boolean json) {
+		return DUMPER.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				out.println(json ? INSTANCE.getSnapshotJson() : INSTANCE.getSnapshotText());
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public boolean isRecording() {
+		return ENABLED && recording;
+	}
+
+	@Override
+	public void setRecording(boolean on) {
+		recording = on;
+	}
+
+	@Override
+	public Map<String, Long> getCallCounts() {
+		Map<String, Long> res = new LinkedHashMap<String, Long>();
+		for (Op op : OPS) {
+			res.put(op.name(), histograms[op.ordinal()].count());
+		}
+		return res;
+	}
+
+	@Override
+	public Map<String, Long> getTotalNanos() {
+		Map<String, Long> res = new LinkedHashMap<String, Long>();
+		for (Op op : OPS) {
+			res.put(op.name(), histograms[op.ordinal()].totalNanos());
+		}
+		return res;
+	}
+
+	@Override
+	public Map<String, Long> getP99Nanos() {
+		Map<String, Long> res = new LinkedHashMap<String, Long>();
+		for (Op op : OPS) {
+			res.put(op.name(), histograms[op.ordinal()].percentile(0.99));
+		}
+		return res;
+	}
+
+	/**
+	 * one line per operation: calls, total and mean time, p50/p99/p999 upper bounds
+	 */
+	@Override
+	public String getSnapshotText() {
+		StringBuilder res = new StringBuilder();
+		res.append(String.format("%-22s %12s %14s %10s %10s %10s %10s%n",
+				"op", "calls", "total(us)", "mean(ns)", "p50(ns)", "p99(ns)", "p999(ns)"));
+		for (Op op : OPS) {
+			Histogram h = histograms[op.ordinal()];
+			long count = h.count(), total = h.totalNanos();
+			res.append(String.format("%-22s %12d %14d %10d %10d %10d %10d%n", op.name(), count, total / 1000,
+					count == 0 ? 0 : total / count, h.percentile(0.5), h.percentile(0.99), h.percentile(0.999)));
+		}
+		return res.toString();
+	}
+
+	@Override
+	public String getSnapshotJson() {
+		StringBuilder res = new StringBuilder("{\"timestampMillis\":").append(System.currentTimeMillis());
+		res.append(",\"ops\":{");
+		for (Op op : OPS) {
+			Histogram h = histograms[op.ordinal()];
+			if (op.ordinal() > 0) {
+				res.append(',');
+			}
+			res.append('"').append(op.name()).append("\":{\"calls\":").append(h.count())
+				.append(",\"totalNanos\":").append(h.totalNanos())
+				.append(",\"p50Nanos\":").append(h.percentile(0.5))
+				.append(",\"p99Nanos\":").append(h.percentile(0.99))
+				.append(",\"p999Nanos\":").append(h.percentile(0.999))
+				.append(",\"buckets\":[");
+			long[] buckets = h.buckets();
+			for (int b = 0; b < buckets.length; b++) {
+				res.append(b == 0 ? "" : ",").append(buckets[b]);
+			}
+			res.append("]}");
+		}
+		return res.append("}}").toString();
+	}
+
+	@Override
+	public void reset() {
+		for (Histogram h : histograms) {
+			h.reset();
+		}
+	}
+
+	/**
+	 * latency histogram with power-of-two buckets (bucket b holds durations below 2^b ns),
+	 * striped per thread: every stripe is a separate row of the array holding its own
+	 * count, sum and buckets, so concurrent threads mostly update different cache lines
+	 */
+	static final class Histogram {
+		static final int BUCKETS = 40; // up to ~9 minutes
+		static final int COUNT = 0, SUM = 1, FIRST_BUCKET = 2;
+		// 2 header cells + buckets, padded to a multiple of 8 longs (64 bytes)
+		static final int ROW = ((FIRST_BUCKET + BUCKETS + 7) / 8) * 8;
+		static final int STRIPES = stripes();
+
+		private final AtomicLongArray cells = new AtomicLongArray(STRIPES * ROW);
+
+		private static int stripes() {
+			int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()));
+			return Math.min(n * 2, 64);
+		}
+
+		void record(long nanos) {
+			int row = stripe() * ROW;
+			int bucket = nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+			cells.incrementAndGet(row + COUNT);
+			cells.addAndGet(row + SUM, nanos);
+			cells.incrementAndGet(row + FIRST_BUCKET + bucket);
+		}
+
+		private static int stripe() {
+			long id = Thread.currentThread().getId();
+			return (int) ((id ^ (id >>> 7)) & (STRIPES - 1));
+		}
+
+		long count() {
+			return sum(COUNT);
+		}
+
+		long totalNanos() {
+			return sum(SUM);
+		}
+
+		long[] buckets() {
+			long[] res = new long[BUCKETS];
+			for (int b = 0; b < BUCKETS; b++) {
+				res[b] = sum(FIRST_BUCKET + b);
+			}
+			return res;
+		}
+
+		/** @return the upper bound (in ns) of the bucket holding the requested quantile */
+		long percentile(double q) {
+			long[] buckets = buckets();
+			long total = 0;
+			for (long c : buckets) {
+				total += c;
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(q * total), seen = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				seen += buckets[b];
+				if (seen >= rank) {
+					return 1L << b;
+				}
+			}
+			return 1L << (BUCKETS - 1);
+		}
+
+		private long sum(int offset) {
+			long res = 0;
+			for (int s = 0; s < STRIPES; s++) {
+				res += cells.get(s * ROW + offset);
+			}
+			return res;
+		}
+
+		void reset() {
+			for (int i = 0; i < cells.length(); i++) {
+				cells.set(i, 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package chess;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link RulesMetrics}, registered as <code>chess:type=RulesMetrics</code>
+ * when the metrics are switched on with <code>-Dchess.metrics=true</code>
+ */
+public interface RulesMetricsMXBean {
+
+	/** whether the metrics were compiled in (system property) and are currently recording */
+	boolean isRecording();
+
+	void setRecording(boolean recording);
+
+	/** number of calls per rules operation */
+	Map<String, Long> getCallCounts();
+
+	/** total time spent per rules operation, in nanoseconds */
+	Map<String, Long> getTotalNanos();
+
+	/** approximate 99th percentile latency per rules operation, in nanoseconds */
+	Map<String, Long> getP99Nanos();
+
+	String getSnapshotText();
+
+	String getSnapshotJson();
+
+	void reset();
+}
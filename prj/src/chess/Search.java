@@ -0,0 +1,460 @@
+package chess;
+
+import static chess.Board.*;
+
+import java.util.Arrays;
+
+/**
+ * Iterative deepening alpha-beta (negamax) search of a {@link Board}, with a quiescence search of
+ * captures and promotions at the leaves, check extensions, an optional {@link TranspositionTable}
+ * (which several searches of the same position on different threads may share),
+ * MVV-LVA and killer move ordering, and multi-PV at the root: the best N root moves are searched with an exact score, the others only
+ * as far as needed to show they are not better than the N-th.
+ *
+ * Draws are scored by the rules of {@link State}: no legal move without check, insufficient material,
+ * the fifty-move rule as counted by State, and any repetition of a position of the game or the search line.
+ *
+ * A Search is used by one thread; {@link #stop()} may be called from any. The search also stops when
+ * its {@link TimeManager} runs out or its thread is interrupted, in the first iteration too: it then plays
+ * the first root move in its order, unscored.
+ */
+final class Search {
+
+	static final int MAX_PLY = 128;
+	static final int INFINITE = 32000;
+	static final int MATE = 31000;
+	/** scores beyond it are mates */
+	static final int MATE_BOUND = MATE - MAX_PLY;
+
+	/** the part of a move kept by the transposition table: all but the CHECK flag */
+	private static final int TT_MOVE_BITS = Moves.CHECK - 1;
+
+	/** nodes between two looks at the stop flags */
+	private static final int CHECK_EVERY = 1024;
+	/** order of the captures losing material, after the quiet moves */
+	private static final int LOSING_CAPTURE = -100000;
+
+	/** a root move with its score for the side to move and its principal variation */
+	static final class Line {
+		final int move;
+		final int score;
+		final int[] pv;
+
+		Line(int move, int score, int[] pv) {
+			this.move = move;
+			this.score = score;
+			this.pv = pv;
+		}
+	}
+
+	interface Listener {
+		/** called after every completed iteration with its best lines, best first */
+		void iteration(int depth, Line[] lines, long nodes, long nanos);
+	}
+
+	private final Board board;
+	private final TranspositionTable tt;
+	/** hashes of the game's positions followed by the ones on the current search line */
+	private final long[] keys;
+	private int keyCount;
+
+	private volatile boolean stopped;
+	private boolean aborted;
+	private TimeManager time;
+	private long nodeLimit;
+	private long nodes;
+	private int completedDepth;
+
+	/** the scratch space of the thread running the search, see {@link SearchStack} */
+	private SearchStack stack;
+	private int[][] killers;
+	private int[][] pv;
+	private int[] pvLength;
+	private int[] gains;
+
+	/**
+	 * @param history - hashes of the positions before @param root in the game, oldest first,
+	 * for repetitions; may be null
+	 * @param tt - may be null
+	 */
+	Search(Board root, long[] history, int historyLength, TranspositionTable tt) {
+		board = new Board(root);
+		this.tt = tt;
+		keys = new long[historyLength + MAX_PLY + 1];
+		if (history != null) {
+			System.arraycopy(history, 0, keys, 0, historyLength);
+			keyCount = historyLength;
+		}
+		keys[keyCount++] = board.hash;
+	}
+
+	Search(Board root) {
+		this(root, null, 0, null);
+	}
+
+	/** makes the running search return as soon as it looks at its flags again */
+	void stop() {
+		stopped = true;
+	}
+
+	long nodes() {
+		return nodes;
+	}
+
+	/** stops the search after about @param limit nodes, 0 for no limit */
+	void limitNodes(long limit) {
+		nodeLimit = limit;
+	}
+
+	int completedDepth() {
+		return completedDepth;
+	}
+
+	/** whether the search ended on a stop, an interrupt or the time limit rather than on its depth */
+	boolean aborted() {
+		return aborted;
+	}
+
+	/**
+	 * searches until @param maxDepth is complete or @param time says to stop
+	 * @return the @param multiPv best lines of the last complete iteration, best first; none if there's no legal move,
+	 * and only the first root move, with a score of 0, if the search was stopped before its first iteration was complete
+	 */
+	Line[] search(int maxDepth, TimeManager time, int multiPv, Listener listener) {
+		this.time = time;
+		stack = SearchStack.current();
+		stack.reset();
+		killers = stack.killers;
+		pv = stack.pv;
+		pvLength = stack.pvLength;
+		gains = stack.gains;
+		time.start();
+		try {
+			return iterate(maxDepth, multiPv, listener);
+		} finally {
+			time.finish();
+		}
+	}
+
+	private Line[] iterate(int maxDepth, int multiPv, Listener listener) {
+		long start = System.nanoTime();
+		nodes = 0;
+		completedDepth = 0;
+		aborted = false;
+
+		MoveList legal = stack.moves[0];
+		int n = MoveGenerator.generate(board, legal);
+		if (n == 0) {
+			return new Line[0];
+		}
+		multiPv = Math.max(1, Math.min(multiPv, n));
+		int[] moves = new int[n];
+		int[] scores = new int[n];
+		int[][] pvs = new int[n][];
+		for (int i = 0; i < n; i++) {
+			moves[i] = legal.get(i);
+			scores[i] = orderScore(legal.get(i), 0);
+			pvs[i] = new int[] {moves[i]};
+		}
+		sort(moves, scores, pvs, n);
+		Line[] best = null;
+		int[] iteration = new int[n];
+		int[] top = new int[multiPv];
+
+		for (int depth = 1; depth <= Math.min(maxDepth, MAX_PLY - 1); depth++) {
+			for (int i = 0; i < n && !aborted; i++) {
+				int alpha = nthBest(iteration, i, top);
+				long undo = board.make(moves[i]);
+				keys[keyCount++] = board.hash;
+				int score = -negamax(depth - 1, -INFINITE, -alpha, 1);
+				keyCount--;
+				board.unmake(moves[i], undo);
+				if (aborted) {
+					break;
+				}
+				iteration[i] = score;
+				if (score > alpha) {
+					int[] line = new int[pvLength[1]];
+					line[0] = moves[i];
+					System.arraycopy(pv[1], 1, line, 1, pvLength[1] - 1);
+					pvs[i] = line;
+				}
+			}
+			if (aborted) {
+				break;
+			}
+			System.arraycopy(iteration, 0, scores, 0, n);
+			sort(moves, scores, pvs, n);
+			best = new Line[multiPv];
+			for (int i = 0; i < multiPv; i++) {
+				best[i] = new Line(moves[i], scores[i], pvs[i]);
+			}
+			completedDepth = depth;
+			if (listener != null) {
+				listener.iteration(depth, best, nodes, System.nanoTime() - start);
+			}
+			// a forced mate found in full needs no deeper look
+			if (multiPv == 1 && Math.abs(scores[0]) >= MATE_BOUND && MATE - Math.abs(scores[0]) <= depth) {
+				break;
+			}
+			if (!time.nextIteration(depth, moves[0], scores[0], n)) {
+				break;
+			}
+		}
+		if (best == null) {
+			best = new Line[] {new Line(moves[0], 0, new int[] {moves[0]})};
+		}
+		return best;
+	}
+
+	/**
+	 * the bound the root move @param i must beat to be among the best of the @param iteration so far,
+	 * as many as @param top has room for
+	 */
+	private static int nthBest(int[] iteration, int i, int[] top) {
+		int multiPv = top.length;
+		if (i < multiPv) {
+			return -INFINITE;
+		}
+		Arrays.fill(top, -INFINITE);
+		for (int j = 0; j < i; j++) {
+			int s = iteration[j];
+			for (int k = 0; k < multiPv; k++) {
+				if (s > top[k]) {
+					int t = top[k];
+					top[k] = s;
+					s = t;
+				}
+			}
+		}
+		return top[multiPv - 1];
+	}
+
+	/** stable insertion sort of the root moves by descending score */
+	private static void sort(int[] moves, int[] scores, int[][] pvs, int n) {
+		for (int i = 1; i < n; i++) {
+			int m = moves[i], s = scores[i];
+			int[] p = pvs[i];
+			int j = i - 1;
+			for (; j >= 0 && scores[j] < s; j--) {
+				moves[j + 1] = moves[j];
+				scores[j + 1] = scores[j];
+				pvs[j + 1] = pvs[j];
+			}
+			moves[j + 1] = m;
+			scores[j + 1] = s;
+			pvs[j + 1] = p;
+		}
+	}
+
+	private void poll() {
+		if (stopped || time.stopped() || (nodeLimit != 0 && nodes >= nodeLimit) || Thread.currentThread().isInterrupted()) {
+			aborted = true;
+		}
+	}
+
+	private boolean isDraw() {
+		if (board.halfmoveClock >= State.FIFTY_MOVE_RULE_NUM || GameEndDetector.insufficientMaterial(board)) {
+			return true;
+		}
+		int last = keyCount - 1;
+		for (int i = last - 2; i >= 0 && i >= last - board.halfmoveClock; i -= 2) {
+			if (keys[i] == keys[last]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int negamax(int depth, int alpha, int beta, int ply) {
+		pvLength[ply] = ply;
+		if ((++nodes & (CHECK_EVERY - 1)) == 0) {
+			poll();
+		}
+		if (aborted) {
+			return 0;
+		}
+		if (isDraw()) {
+			return 0;
+		}
+		if (ply >= MAX_PLY - 1) {
+			return Evaluator.evaluate(board);
+		}
+		boolean inCheck = board.inCheck();
+		if (inCheck) {
+			depth++;
+		}
+		if (depth <= 0) {
+			return quiesce(alpha, beta, ply);
+		}
+		int ttMove = 0;
+		if (tt != null) {
+			long entry = tt.probe(board.hash);
+			if (entry != 0) {
+				ttMove = TranspositionTable.move(entry);
+				int score = TranspositionTable.score(entry, ply), bound = TranspositionTable.bound(entry);
+				// only outside the window, so that the principal variation is never cut short
+				if (TranspositionTable.depth(entry) >= depth && ((bound != TranspositionTable.UPPER && score >= beta)
+						|| (bound != TranspositionTable.LOWER && score <= alpha))) {
+					return score;
+				}
+			}
+		}
+		MoveList moves = stack.moves[ply];
+		int n = MoveGenerator.generate(board, moves);
+		if (n == 0) {
+			return inCheck ? -MATE + ply : 0;
+		}
+		int[] order = stack.order[ply];
+		for (int i = 0; i < n; i++) {
+			int m = moves.get(i);
+			order[i] = (m & TT_MOVE_BITS) == ttMove ? Integer.MAX_VALUE : orderScore(m, ply);
+		}
+		int alphaIn = alpha, best = -INFINITE, bestMove = 0;
+		for (int i = 0; i < n; i++) {
+			int m = pick(moves, order, i, n);
+			long undo = board.make(m);
+			keys[keyCount++] = board.hash;
+			int score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+			keyCount--;
+			board.unmake(m, undo);
+			if (aborted) {
+				return 0;
+			}
+			if (score > best) {
+				best = score;
+				bestMove = m;
+				if (score > alpha) {
+					alpha = score;
+					pv[ply][ply] = m;
+					System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+					pvLength[ply] = pvLength[ply + 1];
+					if (alpha >= beta) {
+						if (!Moves.isCapture(m) && !Moves.isPromotion(m) && killers[ply][0] != m) {
+							killers[ply][1] = killers[ply][0];
+							killers[ply][0] = m;
+						}
+						break;
+					}
+				}
+			}
+		}
+		if (tt != null) {
+			int bound = best >= beta ? TranspositionTable.LOWER : best > alphaIn ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+			tt.store(board.hash, bestMove & TT_MOVE_BITS, best, depth, bound, ply);
+		}
+		return best;
+	}
+
+	/** captures and promotions only, unless in check, standing pat on the static evaluation */
+	private int quiesce(int alpha, int beta, int ply) {
+		pvLength[ply] = ply;
+		if ((++nodes & (CHECK_EVERY - 1)) == 0) {
+			poll();
+		}
+		if (aborted) {
+			return 0;
+		}
+		if (ply >= MAX_PLY - 1) {
+			return Evaluator.evaluate(board);
+		}
+		boolean inCheck = board.inCheck();
+		int best = -INFINITE;
+		if (!inCheck) {
+			best = Evaluator.evaluate(board);
+			if (best >= beta) {
+				return best;
+			}
+			if (best > alpha) {
+				alpha = best;
+			}
+		}
+		MoveList moves = stack.moves[ply];
+		int n = MoveGenerator.generate(board, moves);
+		if (n == 0) {
+			return inCheck ? -MATE + ply : 0;
+		}
+		int[] order = stack.order[ply];
+		for (int i = 0; i < n; i++) {
+			int m = moves.get(i);
+			order[i] = inCheck || Moves.isCapture(m) || Moves.isPromotion(m) ? orderScore(m, ply) : Integer.MIN_VALUE;
+		}
+		for (int i = 0; i < n; i++) {
+			int m = pick(moves, order, i, n);
+			// the rest are excluded, or captures losing material that standing pat is better than
+			if (m == 0 || !inCheck && order[i] < 0) {
+				break;
+			}
+			long undo = board.make(m);
+			int score = -quiesce(-beta, -alpha, ply + 1);
+			board.unmake(m, undo);
+			if (aborted) {
+				return 0;
+			}
+			if (score > best) {
+				best = score;
+				if (score > alpha) {
+					alpha = score;
+					if (alpha >= beta) {
+						break;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * moves the best ordered of the moves from @param i on to @param i
+	 * @return it, 0 if the remaining ones are all excluded (ordered Integer.MIN_VALUE)
+	 */
+	private static int pick(MoveList moves, int[] order, int i, int n) {
+		int best = i;
+		for (int j = i + 1; j < n; j++) {
+			if (order[j] > order[best]) {
+				best = j;
+			}
+		}
+		if (order[best] == Integer.MIN_VALUE) {
+			order[i] = Integer.MIN_VALUE;
+			return 0;
+		}
+		int m = moves.get(best), o = order[best];
+		moves.set(best, moves.get(i));
+		order[best] = order[i];
+		moves.set(i, m);
+		order[i] = o;
+		return m;
+	}
+
+	/**
+	 * captures by most valuable victim then least valuable attacker, promotions, killers, the rest,
+	 * then the captures losing material by static exchange evaluation, the worst last
+	 */
+	private int orderScore(int m, int ply) {
+		int score = 0;
+		if (Moves.isCapture(m)) {
+			int victim = (m & Moves.EN_PASSANT) != 0 ? PAWN : board.mailbox[Moves.to(m)] % 6;
+			int attacker = board.mailbox[Moves.from(m)] % 6;
+			// taking a piece worth as much as the attacker can't lose material
+			if (Evaluator.VALUES[victim] < Evaluator.VALUES[attacker] && !Moves.isPromotion(m)) {
+				int exchange = StaticExchange.evaluate(board, m, gains);
+				if (exchange < 0) {
+					return LOSING_CAPTURE + exchange;
+				}
+			}
+			score = 1000000 + Evaluator.VALUES[victim] * 16 - Evaluator.VALUES[attacker] / 16;
+		}
+		if (Moves.isPromotion(m)) {
+			score += 900000 + Evaluator.VALUES[Moves.promotion(m)];
+		}
+		if (score == 0) {
+			if (m == killers[ply][0]) {
+				score = 800000;
+			} else if (m == killers[ply][1]) {
+				score = 700000;
+			}
+		}
+		return score;
+	}
+}
@@ -0,0 +1,98 @@
+package chess;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads the searches of {@link Uci} and {@link Bench} run on, started once and kept for every search
+ * after, so that the {@link SearchStack} of each thread is allocated once rather than on every go.
+ *
+ * One search runs at a time: a task on one of the threads calls {@link #search}, which puts the helpers on the others.
+ */
+final class SearchPool {
+
+	private final ThreadPoolExecutor pool;
+	private final Thread[] threads;
+
+	/** @param size - threads of one search, the first one included */
+	SearchPool(int size) {
+		threads = new Thread[size];
+		pool = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private int count;
+
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "search-" + count);
+						t.setDaemon(true);
+						threads[count++] = t;
+						return t;
+					}
+				});
+		pool.prestartAllCoreThreads();
+	}
+
+	int size() {
+		return threads.length;
+	}
+
+	/** the ids of the pool's threads, for their allocation counters */
+	long[] threadIds() {
+		long[] ids = new long[threads.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = threads[i].getId();
+		}
+		return ids;
+	}
+
+	<T> Future<T> submit(Callable<T> task) {
+		return pool.submit(task);
+	}
+
+	/**
+	 * searches with @param s[0] on the calling thread, one of the pool's, while the other searches of @param s help it
+	 * on the rest of the pool until it is done; the arguments are those of {@link Search#search}
+	 * @return the lines of s[0]
+	 */
+	Search.Line[] search(Search[] s, final int depth, TimeManager time, int multiPv, Search.Listener listener) {
+		if (s.length > threads.length) {
+			throw new IllegalArgumentException(s.length + " searches for " + threads.length + " threads");
+		}
+		Future<?>[] helpers = new Future<?>[s.length - 1];
+		for (int i = 0; i < helpers.length; i++) {
+			final Search helper = s[i + 1];
+			helpers[i] = pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					// stopped by the first search
+					helper.search(depth, TimeManager.unlimited(), 1, null);
+				}
+			});
+		}
+		try {
+			return s[0].search(depth, time, multiPv, listener);
+		} finally {
+			for (int i = 0; i < helpers.length; i++) {
+				s[i + 1].stop();
+			}
+			for (Future<?> f : helpers) {
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		}
+	}
+
+	void shutdown() {
+		pool.shutdownNow();
+	}
+}
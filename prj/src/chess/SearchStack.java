@@ -0,0 +1,53 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * The scratch space of the searches run on one thread, allocated once per thread and indexed by ply:
+ * the generated moves and their order, the killer moves and the principal variations of every ply,
+ * plus the buffer of the static exchange evaluation. With it a {@link Search} or {@link Perft}
+ * allocates nothing per node; only the lines it reports at the root are new.
+ *
+ * A stack must not be shared by two searches at once, so take it with {@link #current()} on the
+ * thread that runs the search, not the one creating it.
+ */
+final class SearchStack {
+
+	/** plies the stack has room for, enough for every search to Search.MAX_PLY */
+	static final int SIZE = Search.MAX_PLY + 1;
+
+	private static final ThreadLocal<SearchStack> CURRENT = new ThreadLocal<SearchStack>() {
+		@Override
+		protected SearchStack initialValue() {
+			return new SearchStack();
+		}
+	};
+
+	/** the stack of the calling thread */
+	static SearchStack current() {
+		return CURRENT.get();
+	}
+
+	final MoveList[] moves = new MoveList[SIZE];
+	/** the ordering scores of moves, same indexes */
+	final int[][] order = new int[SIZE][];
+	final int[][] killers = new int[SIZE][2];
+	/** pv[ply] is the best line found from ply on, pv[ply][ply] first, up to pvLength[ply] */
+	final int[][] pv = new int[SIZE + 1][SIZE + 1];
+	final int[] pvLength = new int[SIZE + 1];
+	final int[] gains = new int[StaticExchange.MAX_CAPTURES];
+
+	private SearchStack() {
+		for (int ply = 0; ply < SIZE; ply++) {
+			moves[ply] = new MoveList(MoveGenerator.MAX_MOVES);
+			order[ply] = new int[MoveGenerator.MAX_MOVES];
+		}
+	}
+
+	/** forgets the killer moves of the previous search, they belong to another position */
+	void reset() {
+		for (int[] k : killers) {
+			Arrays.fill(k, 0);
+		}
+	}
+}
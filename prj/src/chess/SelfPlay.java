@@ -0,0 +1,217 @@
+package chess;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import chess.State.GameOverReason;
+
+/**
+ * Self-play generator of training and testing corpora.
+ * Games are played by the rules of {@link State} (checkmate, stalemate, insufficient material,
+ * the fifty-move rule as counted by State and threefold repetition) on all cores; every worker
+ * writes its own shard of block-compressed {@link PositionRecord}s, read back with {@link ShardReader}.
+ *
+ * usage: java chess.SelfPlay [-games N] [-threads T] [-policy random|greedy] [-out dir]
+ *        [-seed S] [-maxplies P] [-level 0-9] [-report seconds]
+ */
+public final class SelfPlay {
+
+	private final int games;
+	private final int threads;
+	private final MovePolicy policy;
+	private final File dir;
+	private final long seed;
+	private final int maxPlies;
+	private final int level;
+
+	private final AtomicInteger nextGame = new AtomicInteger();
+	private final AtomicInteger finishedGames = new AtomicInteger();
+	private final AtomicLong positions = new AtomicLong();
+	private final AtomicLong[] outcomes = new AtomicLong[GameOverReason.values().length + 1];
+
+	SelfPlay(int games, int threads, MovePolicy policy, File dir, long seed, int maxPlies, int level) {
+		this.games = games;
+		this.threads = threads;
+		this.policy = policy;
+		this.dir = dir;
+		this.seed = seed;
+		this.maxPlies = maxPlies;
+		this.level = level;
+		for (int i = 0; i < outcomes.length; i++) {
+			outcomes[i] = new AtomicLong();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int games = 10000, threads = Runtime.getRuntime().availableProcessors(), maxPlies = 400, level = 1, report = 1;
+		MovePolicy policy = MovePolicy.RANDOM;
+		File dir = new File("selfplay");
+		long seed = System.nanoTime();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "-games":
+					games = Integer.parseInt(args[i + 1]);
+					break;
+				case "-threads":
+					threads = Integer.parseInt(args[i + 1]);
+					break;
+				case "-policy":
+					policy = MovePolicy.valueOf(args[i + 1].toUpperCase());
+					break;
+				case "-out":
+					dir = new File(args[i + 1]);
+					break;
+				case "-seed":
+					seed = Long.parseLong(args[i + 1]);
+					break;
+				case "-maxplies":
+					maxPlies = Integer.parseInt(args[i + 1]);
+					break;
+				case "-level":
+					level = Integer.parseInt(args[i + 1]);
+					break;
+				case "-report":
+					report = Integer.parseInt(args[i + 1]);
+					break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					return;
+			}
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		new SelfPlay(games, threads, policy, dir, seed, maxPlies, level).run(report);
+	}
+
+	/** plays all the games, printing the progress every @param reportSeconds */
+	void run(int reportSeconds) throws Exception {
+		final long t0 = System.nanoTime();
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "selfplay-progress");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				System.out.println(progress(t0));
+			}
+		}, reportSeconds, reportSeconds, TimeUnit.SECONDS);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int i = 0; i < threads; i++) {
+			final int shard = i;
+			workers.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					playShard(shard);
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<?> f : workers) {
+				f.get();
+			}
+		} finally {
+			pool.shutdownNow();
+			reporter.shutdownNow();
+		}
+		System.out.println(progress(t0));
+		GameOverReason[] reasons = GameOverReason.values();
+		for (int i = 0; i < reasons.length; i++) {
+			System.out.println("  " + reasons[i] + ": " + outcomes[i + 1].get());
+		}
+		System.out.println("  cut at " + maxPlies + " plies: " + outcomes[0].get());
+	}
+
+	private String progress(long t0) {
+		double seconds = Math.max(1e-9, (System.nanoTime() - t0) / 1e9);
+		long p = positions.get();
+		return String.format("games %d/%d, positions %d, %.0f positions/s (%.1fM/min)",
+				finishedGames.get(), games, p, p / seconds, p / seconds * 60 / 1e6);
+	}
+
+	/** worker: plays games until all are claimed, writing them to shard-NNN.bin */
+	private void playShard(int shard) throws IOException {
+		Random rnd = new Random(seed * 31 + shard);
+		File file = new File(dir, String.format("shard-%03d.bin", shard));
+		byte[] records = new byte[(maxPlies + 1) * PositionRecord.SIZE];
+		long[] history = new long[maxPlies + 1];
+		MoveList legal = new MoveList();
+		Board start = new Board(new State());
+		ShardWriter out = new ShardWriter(file, level);
+		try {
+			while (nextGame.getAndIncrement() < games) {
+				Board b = new Board(start);
+				int ply = 0;
+				GameOverReason reason = null;
+				while (true) {
+					history[ply] = b.hash;
+					if (MoveGenerator.generate(b, legal) == 0) {
+						reason = b.inCheck() ? GameOverReason.CHECK_MATE : GameOverReason.NO_AVAILABLE_MOVES;
+						break;
+					}
+					if (GameEndDetector.insufficientMaterial(b)) {
+						reason = GameOverReason.INSUFFICIENT_MATERIAL;
+						break;
+					}
+					if (b.halfmoveClock >= State.FIFTY_MOVE_RULE_NUM) {
+						reason = GameOverReason.FIFTY_MOVE_RULE;
+						break;
+					}
+					if (isThreefold(history, ply, b.halfmoveClock)) {
+						reason = GameOverReason.THREEFOLD_REPETITION_RULE;
+						break;
+					}
+					if (ply == maxPlies) {
+						break;
+					}
+					int m = policy.choose(b, legal, rnd);
+					PositionRecord.write(b, m, ply, records, ply * PositionRecord.SIZE);
+					b.make(m);
+					ply++;
+				}
+				int result = reason != GameOverReason.CHECK_MATE ? PositionRecord.RESULT_DRAW
+						: b.side == Board.WHITE ? PositionRecord.RESULT_BLACK_WINS : PositionRecord.RESULT_WHITE_WINS;
+				for (int i = 0; i < ply; i++) {
+					PositionRecord.writeOutcome(records, i * PositionRecord.SIZE, result, reason);
+				}
+				out.append(records, 0, ply * PositionRecord.SIZE);
+				positions.addAndGet(ply);
+				outcomes[reason == null ? 0 : reason.ordinal() + 1].incrementAndGet();
+				finishedGames.incrementAndGet();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/** whether the position at @param ply occurred twice before since the last capture or pawn move */
+	static boolean isThreefold(long[] history, int ply, int reversible) {
+		int seen = 0;
+		for (int i = ply - 2; i >= 0 && i >= ply - reversible; i -= 2) {
+			if (history[i] == history[ply] && ++seen == 2) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
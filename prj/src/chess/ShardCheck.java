@@ -0,0 +1,118 @@
+package chess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Checks that {@link ShardReader} reads back what {@link ShardWriter} wrote, and fails with an IOException
+ * rather than hanging or returning garbage on a shard cut short or damaged inside a block.
+ *
+ * usage: java chess.ShardCheck; exits with status 1 if a check fails
+ */
+public final class ShardCheck {
+
+	private ShardCheck(){}
+
+	/** the file header and the header of a block, see ShardWriter */
+	static final int FILE_HEADER = 12, BLOCK_HEADER = 16;
+
+	public static void main(String[] args) throws IOException {
+		File shard = File.createTempFile("shard-check", ".bin");
+		File damaged = File.createTempFile("shard-check", ".bin");
+		try {
+			int records = write(shard, ShardWriter.RECORDS_PER_BLOCK + 100);
+			boolean ok = check("intact", shard, records, true);
+
+			// the block's own length fields cut down with it: the inflater runs out of input
+			copy(shard, damaged, FILE_HEADER + BLOCK_HEADER + 100);
+			RandomAccessFile f = new RandomAccessFile(damaged, "rw");
+			try {
+				f.seek(FILE_HEADER + 4);
+				f.writeInt(100);
+			} finally {
+				f.close();
+			}
+			ok &= check("block cut short", damaged, records, false);
+
+			copy(shard, damaged, shard.length() / 2);
+			ok &= check("file cut short", damaged, records, false);
+
+			copy(shard, damaged, shard.length());
+			f = new RandomAccessFile(damaged, "rw");
+			try {
+				f.seek(FILE_HEADER + BLOCK_HEADER + 50);
+				f.writeLong(0x5555555555555555L);
+			} finally {
+				f.close();
+			}
+			ok &= check("damaged block", damaged, records, false);
+			if (!ok) {
+				System.exit(1);
+			}
+		} finally {
+			shard.delete();
+			damaged.delete();
+		}
+	}
+
+	/** writes the positions of random games, @return how many */
+	private static int write(File file, int atLeast) throws IOException {
+		ShardWriter out = new ShardWriter(file, 6);
+		Random rnd = new Random(1);
+		byte[] record = new byte[PositionRecord.SIZE];
+		MoveList legal = new MoveList();
+		int n = 0;
+		try {
+			while (n < atLeast) {
+				Board b = Fen.toBoard(Fen.STARTPOS);
+				for (int ply = 0; ply < 200 && MoveGenerator.generate(b, legal) > 0; ply++, n++) {
+					int m = legal.get(rnd.nextInt(legal.size()));
+					PositionRecord.write(b, m, ply, record, 0);
+					out.append(record, 0, record.length);
+					b.make(m);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return n;
+	}
+
+	private static void copy(File from, File to, long length) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(from, "r");
+		RandomAccessFile out = new RandomAccessFile(to, "rw");
+		try {
+			byte[] bytes = new byte[(int) length];
+			in.readFully(bytes);
+			out.setLength(0);
+			out.write(bytes);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	/** @return whether reading @param file gives all @param records if it is @param intact, an IOException if not */
+	private static boolean check(String name, File file, int records, boolean intact) {
+		int n = 0;
+		String error = null;
+		try {
+			ShardReader in = new ShardReader(file);
+			try {
+				while (in.next()) {
+					n++;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			error = e.getMessage();
+		}
+		boolean ok = intact ? error == null && n == records : error != null;
+		System.out.println((ok ? "ok    " : "FAIL  ") + name + ": " + n + " of " + records + " records"
+				+ (error == null ? "" : ", " + error));
+		return ok;
+	}
+}
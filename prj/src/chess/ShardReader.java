@@ -0,0 +1,173 @@
+package chess;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import chess.State.GameOverReason;
+import games.Move;
+import games.PlayerColor;
+
+/**
+ * Sequential reader of a self-play shard written by {@link SelfPlay}.
+ * One block is inflated at a time into a reused buffer; {@link #next()} moves a cursor over its records
+ * and the accessors read the current record in place, so reading allocates nothing per position.
+ * Consumers wanting the raw records can take {@link #block()} - fixed-size records, see {@link PositionRecord}.
+ *
+ * usage:
+ * <pre>
+ * try (ShardReader in = new ShardReader(file)) {
+ *     while (in.next()) { ... in.getMove() ... in.getResult() ... }
+ * }
+ * </pre>
+ */
+public final class ShardReader implements Closeable {
+
+	private final FileChannel channel;
+	private final ByteBuffer header = ByteBuffer.allocate(16);
+	private final Inflater inflater = new Inflater();
+	private final CRC32 crc = new CRC32();
+	private byte[] compressed = new byte[0];
+	private byte[] raw = new byte[0];
+	private int rawLength;
+	private int offset = -PositionRecord.SIZE;
+
+	public ShardReader(File file) throws IOException {
+		channel = new FileInputStream(file).getChannel();
+		header.limit(12);
+		readFully(header);
+		if (header.getInt(0) != ShardWriter.MAGIC || header.getInt(4) != PositionRecord.SIZE
+				|| header.getInt(8) != ShardWriter.VERSION) {
+			channel.close();
+			throw new IOException(file + " is not a self-play shard");
+		}
+	}
+
+	/**
+	 * moves to the next record
+	 * @return false at the end of the shard
+	 */
+	public boolean next() throws IOException {
+		offset += PositionRecord.SIZE;
+		if (offset < rawLength) {
+			return true;
+		}
+		if (!readBlock()) {
+			return false;
+		}
+		offset = 0;
+		return rawLength > 0 || next();
+	}
+
+	private boolean readBlock() throws IOException {
+		header.clear();
+		if (channel.read(header) <= 0) {
+			return false;
+		}
+		readFully(header);
+		int rawLen = header.getInt(0), compressedLen = header.getInt(4), crcValue = header.getInt(12);
+		if (compressed.length < compressedLen) {
+			compressed = new byte[compressedLen];
+		}
+		if (raw.length < rawLen) {
+			raw = new byte[rawLen];
+		}
+		readFully(ByteBuffer.wrap(compressed, 0, compressedLen));
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedLen);
+		try {
+			int n = 0;
+			while (n < rawLen && !inflater.finished()) {
+				int k = inflater.inflate(raw, n, rawLen - n);
+				// a cut or damaged block leaves the inflater waiting for input that will never come
+				if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("corrupt shard block");
+				}
+				n += k;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("corrupted block", e);
+		}
+		crc.reset();
+		crc.update(raw, 0, rawLen);
+		if ((int) crc.getValue() != crcValue) {
+			throw new IOException("block checksum mismatch");
+		}
+		rawLength = rawLen;
+		return true;
+	}
+
+	private void readFully(ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf) < 0) {
+				throw new EOFException("truncated shard");
+			}
+		}
+	}
+
+	/** the records of the current block, read-only; records start at multiples of PositionRecord.SIZE */
+	public ByteBuffer block() {
+		return ByteBuffer.wrap(raw, 0, rawLength).slice().asReadOnlyBuffer();
+	}
+
+	/** @return the piece on the square (row, col) as in {@link State#getCell(int, int)}, null if empty */
+	public PieceKind getPieceKind(int row, int col) {
+		int p = PositionRecord.piece(raw, offset, Bitboards.square(row, col));
+		return p == Board.EMPTY ? null : Board.pieceKind(p % 6);
+	}
+
+	public PlayerColor getPieceColor(int row, int col) {
+		int p = PositionRecord.piece(raw, offset, Bitboards.square(row, col));
+		return p == Board.EMPTY ? null : Board.playerColor(p / 6);
+	}
+
+	public PlayerColor getPlayerColor() {
+		return Board.playerColor(PositionRecord.side(raw, offset));
+	}
+
+	/** the move played in this position; castling is the king moving onto its own rook, see {@link #getPackedMove()} */
+	public Move getMove() {
+		int m = PositionRecord.move(raw, offset);
+		return Moves.toMove(m);
+	}
+
+	/**
+	 * the packed move played in this position (from | to &lt;&lt; 6 | promotion &lt;&lt; 12), without the flags of Moves:
+	 * castling has the rook's square as its destination (e1h1 for e1g1), en passant and double pushes are told
+	 * by the board, see {@link PositionRecord}
+	 */
+	public int getPackedMove() {
+		return PositionRecord.move(raw, offset);
+	}
+
+	public int getPly() {
+		return PositionRecord.ply(raw, offset);
+	}
+
+	/** @return 1 if white won the game, 0 for a draw, -1 if black won */
+	public int getResult() {
+		return PositionRecord.result(raw, offset) - 1;
+	}
+
+	/** @return how the game ended, null if it was cut at the ply limit */
+	public GameOverReason getGameOverReason() {
+		return PositionRecord.reason(raw, offset);
+	}
+
+	public State toState() {
+		return PositionRecord.toBoard(raw, offset).toState();
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		channel.close();
+	}
+}
@@ -0,0 +1,98 @@
+package chess;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes {@link PositionRecord}s to one shard file as a sequence of independently deflated blocks.
+ *
+ * file layout: MAGIC, record size, VERSION (ints), then per block:
+ * raw length, compressed length, record count, CRC32 of the raw bytes (ints) and the compressed bytes.
+ * A shard is written by one thread only.
+ */
+final class ShardWriter implements Closeable {
+
+	static final int MAGIC = 0x43535031; // "CSP1"
+	static final int VERSION = 1;
+	static final int RECORDS_PER_BLOCK = 4096;
+
+	private final DataOutputStream out;
+	private final Deflater deflater;
+	private final CRC32 crc = new CRC32();
+	private final byte[] block = new byte[RECORDS_PER_BLOCK * PositionRecord.SIZE];
+	private byte[] compressed = new byte[block.length + block.length / 8 + 64];
+	private int filled;
+	private long records;
+
+	/**
+	 * @param level - Deflater compression level, 0 stores the blocks uncompressed
+	 */
+	ShardWriter(File file, int level) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		deflater = new Deflater(level);
+		out.writeInt(MAGIC);
+		out.writeInt(PositionRecord.SIZE);
+		out.writeInt(VERSION);
+	}
+
+	/** appends the whole records in @param records[offset, offset + length) */
+	void append(byte[] records, int offset, int length) throws IOException {
+		while (length > 0) {
+			int n = Math.min(length, block.length - filled);
+			System.arraycopy(records, offset, block, filled, n);
+			filled += n;
+			offset += n;
+			length -= n;
+			if (filled == block.length) {
+				flushBlock();
+			}
+		}
+	}
+
+	long records() {
+		return records + filled / PositionRecord.SIZE;
+	}
+
+	private void flushBlock() throws IOException {
+		if (filled == 0) {
+			return;
+		}
+		deflater.reset();
+		deflater.setInput(block, 0, filled);
+		deflater.finish();
+		int len = 0;
+		while (!deflater.finished()) {
+			if (len == compressed.length) {
+				byte[] grown = new byte[compressed.length * 2];
+				System.arraycopy(compressed, 0, grown, 0, len);
+				compressed = grown;
+			}
+			len += deflater.deflate(compressed, len, compressed.length - len);
+		}
+		crc.reset();
+		crc.update(block, 0, filled);
+		out.writeInt(filled);
+		out.writeInt(len);
+		out.writeInt(filled / PositionRecord.SIZE);
+		out.writeInt((int) crc.getValue());
+		out.write(compressed, 0, len);
+		records += filled / PositionRecord.SIZE;
+		filled = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBlock();
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+}
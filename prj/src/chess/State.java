@@ -1,7 +1,7 @@
 package chess;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 import games.IllegalMoveException;
@@ -19,6 +19,10 @@ public class State {
   //2 variables required for castling
   static final int ROOKROWCLOSE = 7;
   static final int ROOKROWFAR = 0;
+  static final int KINGROW = 4;
+  //where the king and the rook land when castling, in Chess960 as well
+  static final int KINGROWCLOSE = 6, ROOKTOCLOSE = 5;
+  static final int KINGROWFAR = 2, ROOKTOFAR = 3;
   
   private PlayerColor whoseTurn = PlayerColor.WHITE;
 
@@ -30,6 +34,7 @@ public class State {
     THREEFOLD_REPETITION_RULE,
     NO_AVAILABLE_MOVES,
     CHECK_MATE,
+    INSUFFICIENT_MATERIAL,
   }
   
   private GameOverReason gameover = null;
@@ -37,6 +42,9 @@ public class State {
   
   private Piece[][] board = new Piece[8][8];
   private boolean isCastling = false; //http://www.chesscorner.com/tutorial/basic/castling/castle.htm
+  /** the rows of the rooks castling short and long, as set up at the start (Chess960 moves them) */
+  private int rookRowClose = ROOKROWCLOSE;
+  private int rookRowFar = ROOKROWFAR;
   /**
    * https://en.wikipedia.org/wiki/En_passant this Position serves to mark if the last state an opponents 
    * pawn moved "first long move" as this is the only situation when enpassant capture can be applied
@@ -101,9 +109,35 @@ public class State {
     board[7][BOARDLENGTH-1]=new Piece(PlayerColor.BLACK, PieceKind.ROOK);
 
   }
+
+  /**
+   * initialization of one of the 960 start positions of Fischer Random Chess, numbered as by Scharnagl
+   * (518 is the standard one): the pieces behind the pawns are shuffled, with the king between the rooks
+   * and the bishops on squares of opposite colors. Castling takes the king to the same squares as in the
+   * standard game; a move of the king onto its own rook castles with that rook.
+   * @throws IllegalArgumentException if @param chess960 is not in 0-959
+   */
+  public State(int chess960) {
+	this();
+	int[] backRank = Chess960.backRank(chess960);
+	rookRowFar = -1;
+	for (int j=0; j< BOARDLENGTH; j++){
+		PieceKind kind = Board.pieceKind(backRank[j]);
+		board[j][0]=new Piece(PlayerColor.WHITE, kind);
+		board[j][BOARDLENGTH-1]=new Piece(PlayerColor.BLACK, kind);
+		if (kind == PieceKind.ROOK){
+			if (rookRowFar < 0){
+				rookRowFar = j;
+			} else {
+				rookRowClose = j;
+			}
+		}
+	}
+  }
  
   
   public State(State original) { //deep copy
+	  	long t0 = RulesMetrics.start();
 		for (int i=0; i < BOARDLENGTH; i++){
 			for (int j=0; j < BOARDLENGTH; j++){
 				board[i][j] = new Piece (original.board[i][j].getColor(),
@@ -115,6 +149,9 @@ public class State {
 	    this.gameover = original.gameover;
 	    this.enpassantPiecePosition= original.enpassantPiecePosition;
 	    this.isCastling = original.isCastling;
+	    this.rookRowClose = original.rookRowClose;
+	    this.rookRowFar = original.rookRowFar;
+	    RulesMetrics.stop(RulesMetrics.Op.STATE_COPY, t0);
   }
   
   public boolean getCastlingStatus (){
@@ -125,6 +162,19 @@ public class State {
 	  this.isCastling = isCastling;
   }
   
+  int getRookRowClose (){
+	  return this.rookRowClose;
+  }
+
+  int getRookRowFar (){
+	  return this.rookRowFar;
+  }
+
+  void setRookRows (int close, int far){
+	  this.rookRowClose = close;
+	  this.rookRowFar = far;
+  }
+
   public Position getEnpassantPosition (){
 	  return this.enpassantPiecePosition;
   }
@@ -161,7 +211,7 @@ public class State {
 		for (int j=0; j < BOARDLENGTH; j++){
 			if (board[i][j].getColor()== pc &&
 				board[i][j].getKind() == PieceKind.KING){
-					return new Position (i,j);
+					return Position.of(i,j);
 			}
 		}
 	} 
@@ -188,70 +238,20 @@ public boolean equals(Object o)
  */
   @Override
   public String toString(){
-	  String res = "   ";
-	  int num = 8;
-	  for (char alphabet = 'a'; alphabet<='h';alphabet ++){
-		  res +="    "+alphabet+"    ";  
-	  }
-	  res +="\n";
-	  for (int i=BOARDLENGTH-1; i >=0; i--){
-		  res += num-- +" | ";
-		  for (int j=0; j <BOARDLENGTH; j++){
-			  if (this.getCell(j, i).getColor()==null){
-				  res +="_______|_"; 
-			  } else {
-				  res += this.getCell(j, i).toString().substring(0, 6)+ " | ";
-			  }
-		  }
-	  res += "\n";
-	  }
-	  return res;
+	  return BoardRenderer.toString(this);
   }
 /**
  * returns string with the state of the board where ascii chess characters are used
  */
 public String toStringWithSymbols(){
-	  String res = "    ";
-	  int num = 8;
-	  for (char alphabet = 'a'; alphabet<='h';alphabet ++){
-		  res +="\u3000\u2009\u2006"+alphabet;  
-	  }
-	  res +="\n";
-	  for (int i=BOARDLENGTH-1; i >=0; i--){
-		  res += num-- +" |";
-		  for (int j=0; j <BOARDLENGTH; j++){
-			  if (this.getCell(j,i).getColor()==null){
-				  res +="\u3000\u2009\u2006|"; 
-			  } else {
-			  	  switch (this.getCell(j, i).getKind()){
-			  	  	case KING:
-			  	  		res += ((this.getCell(j,i).getColor() == PlayerColor.WHITE) ? "\u2654" : "\u265A")+"|";
-			  	  		break;
-			  	  	case QUEEN:
-			  	  		res += ((this.getCell(j,i).getColor() == PlayerColor.WHITE) ? "\u2655" : "\u265B" )+"|";
-			  	  		break;
-			  	  	case ROOK:
-			  	  		res += ((this.getCell(j,i).getColor() == PlayerColor.WHITE) ? "\u2656" : "\u265C")+"|";
-			  	  		break;
-			  	  	case BISHOP:
-			  	  		res += ((this.getCell(j,i).getColor() == PlayerColor.WHITE) ? "\u2657" : "\u265D")+"|";
-			  	  		break;
-			  	  	case KNIGHT:
-			  	  		res += ((this.getCell(j,i).getColor() == PlayerColor.WHITE) ? "\u2658" : "\u265E")+"|";
-			  	  		break;
-			  	  	case PAWN:
-			  	  		res += ((this.getCell(j,i).getColor() == PlayerColor.WHITE) ? "\u2659" : "\u265F")+"|";
-			  	  		break;
-			  	  }
-			  }
-		  }
-		  res += "\n";
-	  }
-	  res += "    ";
-	  for (char alphabet = 'a'; alphabet<='h';alphabet ++){
-		  res +="\u3000\u2009\u2006"+alphabet;  
-	  }
-	  return res;
+	  return BoardRenderer.toStringWithSymbols(this);
+	}
+
+/**
+ * returns the board on a single line, for logs: FEN piece placement and the player to move
+ */
+public String toCompactString(){
+	  return BoardRenderer.toCompactString(this);
 	}
 
 /**
@@ -260,37 +260,59 @@ public String toStringWithSymbols(){
  * @return boolean describing if there are ways to avoid mate in case of check
  */
 public static boolean ifWaysToAvoidMate(State state, PlayerColor pc){
-	 for (int i=0; i < BOARDLENGTH ; i++){
-			for (int j=0; j < BOARDLENGTH ; j++){ 
-				// for every piece of the player pc
-				if (state.getCell(i,j).getColor()== pc ){
-						Position from = new Position (i, j);
-						// getting the list of the valid moves 
-						for (Position p : validMoves(state, state.getCell(i, j).getKind(), from, state.getPlayerColor().getOpposite(),true, false)){
-							// and checking if the check condition can be avoided if the move is implemented
-							State s = new State(state);
-							s.setPlayerColor(s.getPlayerColor().getOpposite());
-							s = makeMove(s, new Move(from, p), true);
-							if (! isUnderRiskOfCapture(s, s.kingPosition(pc), pc.getOpposite())){
-								return true;
-							}
-						}
-				}
-			}
-		}
-	 return false;
- }
-
+	long t0 = RulesMetrics.start();
+	try {
+		// a pinned piece or a king stepping along the checking line can't avoid the mate either
+		return GameEndDetector.hasLegalMove(state, pc);
+	} finally {
+		RulesMetrics.stop(RulesMetrics.Op.WAYS_TO_AVOID_MATE, t0);
+	}
+}
 
   /**
-   * Applies the move.
-   * @return The resulting state
+   * Applies the move if it is legal, as told by {@link MoveGenerator}.
+   * @return The resulting state, @param st unchanged if the move is not legal
    * @throws IllegalMoveException if the move is not legal
    */
   
  public static State makeMove(State st, Move move, boolean checkForCheck) {
+	long t0 = RulesMetrics.start();
+	try {
+		return applyMove(st, move, checkForCheck, null, false);
+	} finally {
+		RulesMetrics.stop(RulesMetrics.Op.MAKE_MOVE, t0);
+	}
+ }
+
+  /**
+   * Applies a move accepted before, as read back from a {@link GameJournal}: the same rules as a real move,
+   * but the promoted piece is @param promotion (null if the move doesn't promote) and nothing is printed.
+   * Like a tested move it doesn't look for the end of the game (other than by the 50-move rule), that was done
+   * when the move was accepted; see {@link GameEndDetector} after the last one.
+   * @return The resulting state
+   * @throws IllegalMoveException if the move is not legal, or promotes without @param promotion
+   */
+ public static State replayMove(State st, Move move, PieceKind promotion) {
+	long t0 = RulesMetrics.start();
+	try {
+		State next = applyMove(st, move, true, promotion, true);
+		if (next.getPlayerColor() == st.getPlayerColor()) {
+			throw new IllegalMoveException("The move " + move.getFrom() + "-" + move.getTo() + " is not legal here");
+		}
+		return next;
+	} finally {
+		RulesMetrics.stop(RulesMetrics.Op.MAKE_MOVE, t0);
+	}
+ }
+
+ private static State applyMove(State st, Move move, boolean checkForCheck, PieceKind promotion, boolean quiet) {
 	 	State state = new State (st);
 		Piece moving = state.getCell(move.getFrom().getRow(), move.getFrom().getCol());
+		Piece target = state.getCell(move.getTo().getRow(), move.getTo().getCol());
+		int from = Bitboards.square(move.getFrom().getRow(), move.getFrom().getCol());
+		int to = Bitboards.square(move.getTo().getRow(), move.getTo().getCol());
+		Board board = new Board(state);
+		int m;
 		try {
 			//check to see whether there is a piece at the chosen board location
 			if (moving.getColor()==null){
@@ -300,166 +322,239 @@ public static boolean ifWaysToAvoidMate(State state, PlayerColor pc){
 			if (moving.getColor()==state.getPlayerColor().getOpposite()){
 				throw new IllegalMoveException ("You're trying to move another's player piece");
 			}
-			//if it's occupied -a) can't move b) capture
-			if (state.getCell(move.getTo().getRow(), move.getTo().getCol()).getColor()==state.getPlayerColor()){
-				//TODO OK for swapping the king and rook
+			//if it's occupied -a) can't move b) capture; the king moving onto its own rook castles with it (Chess960)
+			if (target.getColor()==state.getPlayerColor()
+					&& !(moving.getKind() == PieceKind.KING && target.getKind() == PieceKind.ROOK)){
 				throw new IllegalMoveException ("You're trying to capture your own piece");
 			}
-			// Test to see if the move is valid for the particular piece
-			if (!validMoves(state, moving.getKind(), move.getFrom(), state.getPlayerColor(),true, true).contains(move.getTo())){
-				throw new IllegalMoveException ("This is an illegal move for this type of piece");
+			// the move generator decides, so that the game ends by the same rules (GameEndDetector) the moves are taken by
+			try {
+				m = MoveGenerator.legalMove(board, new MoveList(), from, to, promotion == null ? Board.QUEEN : promotion.ordinal());
+			} catch (IllegalMoveException im) {
+				if ((validMoveMask(state, moving.getKind(), move.getFrom().getRow(), move.getFrom().getCol(), state.getPlayerColor(), false, false)
+						& bit(move.getTo().getRow(), move.getTo().getCol())) == 0){
+					throw new IllegalMoveException ("This is an illegal move for this type of piece");
+				}
+				throw new IllegalMoveException ("Like that, "+state.getPlayerColor()+"'s king is under check. This move is invalid");
 			}
 		} catch (IllegalMoveException im) {
 			// logging exceptions to console in case this is a real move
-			if (!checkForCheck){
+			if (!checkForCheck && !quiet){
 				System.out.println(im.toString());
 			}
 			return state;
 		}
 		
-		
-		//Check whether this is being a move with capture & by a pawn
-		if (state.getCell(move.getFrom().getRow(), move.getFrom().getCol()).getKind() == PieceKind.PAWN 
-				|| (state.getCell(move.getTo().getRow(), move.getTo().getCol()).getKind()!=null)){ 
-			state.movesWithoutCaptureNorPawn = 0;
-		} else {
-			state.movesWithoutCaptureNorPawn ++;
-		}
-
-		//Check for the http://en.wikipedia.org/wiki/Fifty-move_rule
-		if (state.movesWithoutCaptureNorPawn == FIFTY_MOVE_RULE_NUM){
-			state.setGameOverReason(GameOverReason.FIFTY_MOVE_RULE);
-		}
-		
-		//checking if the king is somehow being captured (which really should not happen but just in case) 
-		if (state.getCell(move.getTo().getRow(), move.getTo().getCol()).getColor()==state.getPlayerColor().getOpposite() &&
-				state.getCell(move.getTo().getRow(), move.getTo().getCol()).getKind() == PieceKind.KING){
-			//this means game is over
-			ChessConsole.printMessage("You somehow managed to capture your opponent's king!");
-			state.setGameOverReason(GameOverReason.CHECK_MATE);
-		}
-		
-		//setting the boolean piece parameter that it was moved 
-		moving.setIfMoved(true);
-		//execute the move
-		State nextState = new State(state);
-		nextState.getCell(move.getTo().getRow(), move.getTo().getCol()).SetPiece(moving);
-		nextState.getCell(move.getFrom().getRow(), move.getFrom().getCol()).PieceRemove();
-		
 		//if the pawn reaches the diagonal 8 of the other player it should be promoted
-		if ( nextState.getCell(move.getTo().getRow(), move.getTo().getCol()).getKind()==PieceKind.PAWN && 
-				(nextState.getPlayerColor().toInt()*move.getFrom().getCol()==6 || nextState.getPlayerColor().toInt()*move.getFrom().getCol()==-1)){
-			nextState.getCell(move.getTo().getRow(), move.getTo().getCol()).setKind(ChessConsole.callForPromotion());
+		if (Moves.isPromotion(m) && promotion == null){
+			if (quiet){
+				// a move read back has its piece with it, there's nobody to ask
+				throw new IllegalMoveException ("The promotion at " + move.getTo() + " doesn't say to which piece");
+			}
+			try {
+				m = MoveGenerator.legalMove(board, new MoveList(), from, to, ChessConsole.callForPromotion().ordinal());
+			} catch (IllegalMoveException im) {
+				if (!checkForCheck){
+					System.out.println(im.toString());
+				}
+				return state;
+			}
 		}
 		
-		// if en passant happened we also need to remove the opponents pawn piece
-		if (nextState.getEnpassantPosition() != null 
-				&& nextState.getPlayerColor().getOpposite() == nextState.getCell(nextState.getEnpassantPosition().getRow(), nextState.getEnpassantPosition().getCol()).getColor()){
-			nextState.getCell(nextState.getEnpassantPosition().getRow(), nextState.getEnpassantPosition().getCol()).PieceRemove();
-			nextState.setEmpassantPosition(null); 
-		}
+		//execute the move, castling and en passant included
+		board.make(m);
+		State nextState = board.toState();
 		
-		// if castling is in progress we need to additionally move the rook 
-		if (nextState.getCastlingStatus() && nextState.getCell(move.getTo().getRow(), move.getTo().getCol()).getKind() == PieceKind.KING 
-				&& Math.abs(move.getTo().getRow()-move.getFrom().getRow()) == 2){
-			if (move.getTo().getRow()== ROOKROWCLOSE-1){ //if it was "short castling"
-				nextState.getCell(ROOKROWCLOSE-2, move.getTo().getCol()).SetPiece(nextState.getCell(ROOKROWCLOSE, move.getTo().getCol()));
-				nextState.getCell(ROOKROWCLOSE-2,  move.getTo().getCol()).setIfMoved(true);
-				nextState.getCell(ROOKROWCLOSE, move.getTo().getCol()).PieceRemove();
-			}
-			if (move.getTo().getRow()== ROOKROWFAR+2){//"long castling"
-				nextState.getCell(ROOKROWFAR+3, move.getTo().getCol()).SetPiece(nextState.getCell(ROOKROWFAR, move.getTo().getCol()));
-				nextState.getCell(ROOKROWFAR+3 , move.getTo().getCol()).setIfMoved(true);
-				nextState.getCell(ROOKROWFAR, move.getTo().getCol()).PieceRemove();
-			}
+		//Check for the http://en.wikipedia.org/wiki/Fifty-move_rule (counting the moves without capture nor pawn)
+		if (nextState.movesWithoutCaptureNorPawn == FIFTY_MOVE_RULE_NUM){
+			nextState.setGameOverReason(GameOverReason.FIFTY_MOVE_RULE);
 		}
 		
 		//if we are actually making a move, not just testing
 		if (!checkForCheck){
 			
 			// checking if the opponent will have a chance to make a move next round
-			if (State.noMoreMoves(nextState, nextState.getPlayerColor().getOpposite())){
-				nextState.setGameOverReason(GameOverReason.NO_AVAILABLE_MOVES);
-			} else if(State.isUnderRiskOfCapture(nextState, 
-					nextState.kingPosition(nextState.getPlayerColor().getOpposite()), nextState.getPlayerColor())){
-			//checking if the opponent's king is endangered - only according to bool to avoid getting into the infinite loop
+			if (board.inCheck() && !quiet){
 				ChessConsole.printMessage("Check - king is endangered");
-				// check whether there is a move that would save the king
-				if (!State.ifWaysToAvoidMate(nextState, nextState.getPlayerColor().getOpposite())){
-					nextState.setGameOverReason(GameOverReason.CHECK_MATE);
-				}
 			}
-			//if the player's king is endangered - is he making the move to prevent it? (otherwise not valid) - same for putting the king under check
-			if(State.isUnderRiskOfCapture(nextState, 
-					nextState.kingPosition(nextState.getPlayerColor()), nextState.getPlayerColor().getOpposite())){
-					ChessConsole.printMessage("Like that, "+nextState.getPlayerColor()+"'s king is under check. This move is invalid");
-					return state; // otherwise returning old state
+			// checkmate, stalemate or not enough material left to mate
+			GameOverReason end = GameEndDetector.detect(board);
+			if (end != null){
+				nextState.setGameOverReason(end);
 			}
 		}
-		// next time it will be another player's turn
-		nextState.setPlayerColor(state.getPlayerColor().getOpposite());
-		nextState.setCastlingStatus(false);
 	    return nextState; 
 	  }
  
  // auxiliary function which establishes whether the field is under possible capture
 
  public static boolean isUnderRiskOfCapture (State state, Position position, PlayerColor opponent){
-	 
+	long t0 = RulesMetrics.start();
+	try {
+		return underRiskOfCapture(state, position, opponent);
+	} finally {
+		RulesMetrics.stop(RulesMetrics.Op.UNDER_RISK_OF_CAPTURE, t0);
+	}
+ }
+
+ private static boolean underRiskOfCapture (State state, Position position, PlayerColor opponent){
+	if (position == null || !position.isInRange(0, BOARDLENGTH)){
+		return false;
+	}
+	long target = bit(position.getRow(), position.getCol());
 	for (int i=0; i < 8; i++){
 		for (int j=0; j < 8; j++){
-			// if the piece is opponent's piece and the position is question is among its valid moves
-			  if (state.getCell(i, j).getColor()==opponent &&
-					  validMoves(state, state.getCell(i, j).getKind(), new Position(i,j), opponent, false, false).contains(position)){
+			// if the piece is opponent's piece and the position is question is among the squares it attacks
+			  if (state.board[i][j].getColor()==opponent &&
+					  (attackMask(state, state.board[i][j].getKind(), i, j, opponent) & target) != 0){
 				  return true;}
 		}
 	}
 	 return false;
  }
+
+ /*
+  * the squares the piece of @param kind at (row, col) could capture on, whatever stands there: unlike its valid moves,
+  * a pawn attacks only diagonally, and pieces of its own color count (they're protected)
+  */
+ private static long attackMask(State s, PieceKind kind, int row, int col, PlayerColor pc){
+	long attacks = 0;
+	switch (kind){
+		case PAWN:{
+			int toCol = col+1*pc.toInt();
+			if (inRange(row+1, toCol)){
+				attacks |= bit(row+1, toCol);
+			}
+			if (inRange(row-1, toCol)){
+				attacks |= bit(row-1, toCol);
+			}
+			break;
+		}
+		case KNIGHT:{
+			attacks |= moveOffset(s, row, col, KNIGHT_OFFSETS, null);
+			break;
+		}
+		case KING:{
+			attacks |= moveOffset(s, row, col, KING_OFFSETS, null);
+			break;
+		}
+		default:{
+			for (Direction dir : Direction.values()){
+				boolean diagonal = dir.rowStep != 0 && dir.colStep != 0;
+				if (kind == PieceKind.QUEEN || (kind == PieceKind.BISHOP) == diagonal){
+					attacks |= moveLine(s, row, col, dir, null);
+				}
+			}
+		}
+	}
+	return attacks;
+ }
  //checking whether the player has any valid moves left
  public static boolean noMoreMoves (State state, PlayerColor pc){
-	 for (int i=0; i < 8; i++){
-			for (int j=0; j < 8; j++){
-				// if the piece is player's piece and it has some valid moves
-				  if (state.getCell(i, j).getColor()==pc &&
-						  ! validMoves(state, state.getCell(i, j).getKind(), new Position (i,j), pc, true, false).isEmpty()){
-					  return false;
-				  }
-			}
-	 }
-	 return true;
+	long t0 = RulesMetrics.start();
+	try {
+		return !GameEndDetector.hasLegalMove(state, pc);
+	} finally {
+		RulesMetrics.stop(RulesMetrics.Op.NO_MORE_MOVES, t0);
+	}
  }
- 
+
   /*
-   * auxiliary enum containing direction a figure can move
+   * auxiliary enum containing direction a figure can move, with its row and column steps
    */
-  private enum Direction {RIGHT, LEFT, UP, DOWN, LEFTUP, RIGHTUP, LEFTDOWN, RIGHTDOWN} 
+  private enum Direction {
+	  RIGHT(1, 0), LEFT(-1, 0), UP(0, -1), DOWN(0, 1), LEFTUP(-1, -1), RIGHTUP(1, -1), LEFTDOWN(-1, 1), RIGHTDOWN(1, 1);
+
+	  private final int rowStep, colStep;
+
+	  private Direction(int rowStep, int colStep) {
+		  this.rowStep = rowStep;
+		  this.colStep = colStep;
+	  }
+  }
+
+  //length of possible king move is 1
+  private static final int[][] KING_OFFSETS = {
+          {1, 0},
+          {0, 1},
+          {-1, 0},
+          {0, -1},
+          {1, 1},
+          {-1, 1},
+          {-1, -1},
+          {1, -1}
+      };
+  //knights can jump over other figures
+  private static final int[][] KNIGHT_OFFSETS = {
+          {-2, 1},
+          {-1, 2},
+          {1, 2},
+          {2, 1},
+          {2, -1},
+          {1, -2},
+          {-1, -2},
+          {-2, -1}
+   };
  
  /*
   * @return the list of the valid moves for a specific piece of PieceKind kind from Position starting
   * boolean checkForCapture - whether we need in this call to check if the king is being captured 
   * boolean move -whether this call of the function refers to an actual move
+  * The moves are pseudo-legal on purpose: a move of a pinned piece or a king stepping along the line of a check
+  * is listed, makeMove (MoveGenerator) rejects it; Perft.compare checks both agree once that is done.
   */
   public static List<Position> validMoves(State s, PieceKind kind, Position starting, PlayerColor pc, boolean checkForCapture, boolean move){
-	  List<Position> moves = new LinkedList<Position>();
+	  long moves = validMoveMask(s, kind, starting.getRow(), starting.getCol(), pc, checkForCapture, move);
+	  List<Position> res = new ArrayList<Position>(Long.bitCount(moves));
+	  for (; moves != 0; moves &= moves - 1){
+		  res.add(Moves.position(Long.numberOfTrailingZeros(moves)));
+	  }
+	  return res;
+  }
+
+  /*
+   * the valid moves of validMoves as a set of squares, bit col*8+row set for Position (row, col)
+   */
+  static long validMoveMask(State s, PieceKind kind, int row, int col, PlayerColor pc, boolean checkForCapture, boolean move){
+	  long t0 = RulesMetrics.start();
+	  try {
+		  return pieceMoves(s, kind, row, col, pc, checkForCapture, move);
+	  } finally {
+		  RulesMetrics.stop(RulesMetrics.Op.VALID_MOVES, t0);
+	  }
+  }
+
+  private static long bit(int row, int col){
+	  return 1L << Bitboards.square(row, col);
+  }
+
+  private static boolean inRange(int row, int col){
+	  return row >= 0 && row < BOARDLENGTH && col >= 0 && col < BOARDLENGTH;
+  }
+
+  private static long pieceMoves(State s, PieceKind kind, int row, int col, PlayerColor pc, boolean checkForCapture, boolean move){
+	  long moves = 0;
 	  
 	  //check for regular ways pieces can move
 	  switch (kind){
 		case PAWN:{
 			// can move straight 1 board cell if the cell is not occupied // out of array boundaries
-			Position to = new Position (starting.getRow(), starting.getCol()+1*pc.toInt());
+			int toCol = col+1*pc.toInt();
 
-			if (to.isInRange(0, BOARDLENGTH) &&(s.getCell(to.getRow(), to.getCol()).getKind() == null)){
-				moves.add (to);
+			if (inRange(row, toCol) && s.board[row][toCol].getKind() == null){
+				moves |= bit(row, toCol);
 			}
 		
 		  //en passant capture: starting position is 4/5 and there is an opponents pawn neighboring yours at the moment
-			if (s.getEnpassantPosition() != null) {
+			Position ep = s.getEnpassantPosition();
+			if (ep != null) {
 				//if the conditions below are not valid, the en-passant opportunity is not followed
-				if((starting.getCol()*pc.toInt() == 4 || starting.getCol()*pc.toInt() == -3) &&
-					s.getEnpassantPosition().getCol()==starting.getCol() &&
-					(s.getEnpassantPosition().getRow() == starting.getRow()+1 || s.getEnpassantPosition().getRow() == starting.getRow()-1 )){
-						moves.add (new Position (s.getEnpassantPosition().getRow(), s.getEnpassantPosition().getCol()+1*s.getPlayerColor().toInt()));
+				if((col*pc.toInt() == 4 || col*pc.toInt() == -3) &&
+					ep.getCol()==col &&
+					(ep.getRow() == row+1 || ep.getRow() == row-1 )){
+						if (inRange(ep.getRow(), ep.getCol()+1*s.getPlayerColor().toInt())){
+							moves |= bit(ep.getRow(), ep.getCol()+1*s.getPlayerColor().toInt());
+						}
 				} else{
 					if (move)
 						s.setEmpassantPosition(null);
@@ -467,24 +562,23 @@ public static boolean ifWaysToAvoidMate(State state, PlayerColor pc){
 			}
 					
 			//if starting position is horizontal 2(7) it's okay to move it to 4(5) if the way if not occupied
-			to = new Position (starting.getRow(), starting.getCol()+2*pc.toInt());
-			if ((starting.getCol()*pc.toInt() == 1 || starting.getCol()*pc.toInt() == -6)
-					&& s.board [to.getRow()][to.getCol()].getKind() == null
-					&& s.board [to.getRow()][to.getCol()-1*s.getPlayerColor().toInt()].getKind() == null){
-				moves.add (to);
+			toCol = col+2*pc.toInt();
+			if ((col*pc.toInt() == 1 || col*pc.toInt() == -6)
+					&& s.board [row][toCol].getKind() == null
+					&& s.board [row][toCol-1*s.getPlayerColor().toInt()].getKind() == null){
+				moves |= bit(row, toCol);
 				//adding only for the actual move, not if checking 
 				if (move){
-					s.setEmpassantPosition(to); //this pawn is potentially eligible to be captured via en passant 
+					s.setEmpassantPosition(Position.of(row, toCol)); //this pawn is potentially eligible to be captured via en passant 
 				}
 			}
 			// if it was a diagonal move  - OK when capturing
-			to = new Position (starting.getRow()+1, starting.getCol()+1*pc.toInt());
-			if (to.isInRange(0, BOARDLENGTH) && s.board [to.getRow()][to.getCol()].getKind() != null){
-				moves.add (to);
+			toCol = col+1*pc.toInt();
+			if (inRange(row+1, toCol) && s.board [row+1][toCol].getKind() != null){
+				moves |= bit(row+1, toCol);
 			}
-			to = new Position (starting.getRow()-1, starting.getCol()+1*pc.toInt());
-			if (to.isInRange(0, BOARDLENGTH) && s.board [to.getRow()][to.getCol()].getKind() != null){
-				moves.add (to);
+			if (inRange(row-1, toCol) && s.board [row-1][toCol].getKind() != null){
+				moves |= bit(row-1, toCol);
 			}
 			
 			break;
@@ -492,113 +586,62 @@ public static boolean ifWaysToAvoidMate(State state, PlayerColor pc){
 		
 		case ROOK:{
 			//OK to move if same horizontal/vertical + the path is free
-			moves.addAll(moveLine(s, starting, Direction.LEFT, pc));
-			moves.addAll(moveLine(s, starting, Direction.DOWN, pc));
-			moves.addAll(moveLine(s, starting, Direction.UP, pc));
-			moves.addAll(moveLine(s, starting, Direction.RIGHT, pc));
+			moves |= moveLine(s, row, col, Direction.LEFT, pc);
+			moves |= moveLine(s, row, col, Direction.DOWN, pc);
+			moves |= moveLine(s, row, col, Direction.UP, pc);
+			moves |= moveLine(s, row, col, Direction.RIGHT, pc);
 			
 			break;
 		}
 
 		case BISHOP:{
 			//OK to move if same diagonal + the path is free
-			moves.addAll(moveLine(s, starting, Direction.LEFTUP, pc));
-			moves.addAll(moveLine(s, starting, Direction.LEFTDOWN, pc));
-			moves.addAll(moveLine(s, starting, Direction.RIGHTUP, pc));
-			moves.addAll(moveLine(s, starting, Direction.RIGHTDOWN,pc));
+			moves |= moveLine(s, row, col, Direction.LEFTUP, pc);
+			moves |= moveLine(s, row, col, Direction.LEFTDOWN, pc);
+			moves |= moveLine(s, row, col, Direction.RIGHTUP, pc);
+			moves |= moveLine(s, row, col, Direction.RIGHTDOWN, pc);
 			
 			break;
 		}
 		
 		case QUEEN:{
 			//OK to move if same horizontal/vertical/diagonal + the path is free
-			moves.addAll(moveLine(s, starting, Direction.LEFT, pc));
-			moves.addAll(moveLine(s, starting, Direction.DOWN, pc));
-			moves.addAll(moveLine(s, starting, Direction.UP, pc));
-			moves.addAll(moveLine(s, starting, Direction.RIGHT, pc));
-			moves.addAll(moveLine(s, starting, Direction.LEFTUP, pc));
-			moves.addAll(moveLine(s, starting, Direction.LEFTDOWN, pc));
-			moves.addAll(moveLine(s, starting, Direction.RIGHTUP, pc));
-			moves.addAll(moveLine(s, starting, Direction.RIGHTDOWN, pc));
+			for (Direction dir : Direction.values()){
+				moves |= moveLine(s, row, col, dir, pc);
+			}
 			
 			break;
 		}
 		
 		case KING:{
-			//length of possible move is 1
-		    int[][] offsets = {
-		            {1, 0},
-		            {0, 1},
-		            {-1, 0},
-		            {0, -1},
-		            {1, 1},
-		            {-1, 1},
-		            {-1, -1},
-		            {1, -1}
-		        };
-		    
 		  /*let's take a look at the castling situation. Castling may only be done if the king has never moved, 
 		  * the rook involved has never moved, the squares between the king and the rook involved are unoccupied, 
 		  * the king is not in check, and the king does not cross over or end on a square in which it would be in check. 
 		  */
 		    if (checkForCapture && !s.getCastlingStatus() &&
-		    		!s.getCell(starting.getRow(), starting.getCol()).getIfMoved() ){//castling was not yet performed and the king was not moved
-		    		
+		    		!s.getCell(row, col).getIfMoved() ){//castling was not yet performed and the king was not moved
 		    	//"short castling"
-		    		if (!s.getCell(ROOKROWCLOSE, starting.getCol()).getIfMoved() &&
-		    				s.getCell(ROOKROWCLOSE-1, starting.getCol()).getKind() == null &&
-		    						s.getCell(ROOKROWCLOSE-2, starting.getCol()).getKind() == null &&
-		    						!State.isUnderRiskOfCapture(s, new Position (ROOKROWCLOSE-1, starting.getCol()), pc.getOpposite()) &&
-		    						!State.isUnderRiskOfCapture(s, new Position (ROOKROWCLOSE-2, starting.getCol()), pc.getOpposite()) &&
-		    						!State.isUnderRiskOfCapture(s, s.kingPosition(pc), pc.getOpposite()) 
-		    						){
-		    			moves.add(new Position(ROOKROWCLOSE-1, starting.getCol()));
-		    			s.setCastlingStatus(true);
-		    		}
-		    		
-			    	//"long castling"
-		    		if (!s.getCell(ROOKROWFAR, starting.getCol()).getIfMoved() &&
-		    				s.getCell(ROOKROWFAR+1, starting.getCol()).getKind() == null &&
-		    						s.getCell(ROOKROWFAR+2, starting.getCol()).getKind() == null &&
-		    								s.getCell(ROOKROWFAR+3, starting.getCol()).getKind() == null &&
-		    						!State.isUnderRiskOfCapture(s, new Position (ROOKROWFAR+2, starting.getCol()), pc.getOpposite()) &&
-		    						!State.isUnderRiskOfCapture(s, new Position (ROOKROWFAR+3, starting.getCol()), pc.getOpposite()) &&
-		    						!State.isUnderRiskOfCapture(s, s.kingPosition(pc), pc.getOpposite()) 
-		    						){
-		    			moves.add(new Position(ROOKROWFAR+2, starting.getCol()));
-		    			//we are remembering the position of the rook to be moved to move it later
-		    			s.setCastlingStatus(true);
-		    		}
-		    	
+		    	moves |= castling(s, row, col, s.rookRowClose, pc);
+		    	//"long castling"
+		    	moves |= castling(s, row, col, s.rookRowFar, pc);
 		    }
 	
 		    //*need to check that the king is not moving to endangered field
-		    
+		    long around = moveOffset(s, row, col, KING_OFFSETS, pc);
 		    if (checkForCapture){
-		    	List <Position> kingsPossPositions = new LinkedList<Position>(moveOffset(s, starting, offsets, pc));
-		    	for (int k=0; k<kingsPossPositions.size(); k++){
-		    		if (! State.isUnderRiskOfCapture (s, kingsPossPositions.get(k), pc.getOpposite())){
-		    			moves.add(kingsPossPositions.get(k));
+		    	for (; around != 0; around &= around - 1){
+		    		int sq = Long.numberOfTrailingZeros(around);
+		    		if (! State.isUnderRiskOfCapture (s, Moves.position(sq), pc.getOpposite())){
+		    			moves |= 1L << sq;
 		    		}
 		    	}
-		    } else moves.addAll(moveOffset(s, starting, offsets, pc));
+		    } else moves |= around;
 		    //*/
 		    break;
 		}
 		
 		case KNIGHT:{
-			//knights can jump over other figures
-		    int[][] offsets = {
-		            {-2, 1},
-		            {-1, 2},
-		            {1, 2},
-		            {2, 1},
-		            {2, -1},
-		            {1, -2},
-		            {-1, -2},
-		            {-2, -1}
-		     };
-		    moves.addAll(moveOffset(s, starting, offsets, pc));
+		    moves |= moveOffset(s, row, col, KNIGHT_OFFSETS, pc);
 		    
 		    break;
 		}
@@ -612,57 +655,77 @@ public static boolean ifWaysToAvoidMate(State state, PlayerColor pc){
 	  return moves;
   }
   
+  /*
+   * castling of the king at (row, col) with the rook at (rookRow, col), if the rook has never moved either,
+   * the squares the king and the rook cross or land on are free but for the two of them, and the king is not in check
+   * and doesn't cross over or end on a square under risk of capture.
+   * The king lands on the g (c) file and the rook next to it, whatever their files in the setup (Chess960).
+   * @return the square to move the king to for it: two squares over in the standard setup,
+   * the rook's own in the others, where two squares over may be an ordinary king move
+   */
+  private static long castling(State s, int row, int col, int rookRow, PlayerColor pc){
+	  Piece rook = s.getCell(rookRow, col);
+	  if (rook.getKind() != PieceKind.ROOK || rook.getColor() != pc || rook.getIfMoved()){
+		  return 0;
+	  }
+	  boolean close = rookRow > row;
+	  int kingTo = close ? KINGROWCLOSE : KINGROWFAR, rookTo = close ? ROOKTOCLOSE : ROOKTOFAR;
+	  int from = Math.min(Math.min(row, kingTo), Math.min(rookRow, rookTo));
+	  int to = Math.max(Math.max(row, kingTo), Math.max(rookRow, rookTo));
+	  for (int i = from; i <= to; i++){
+		  boolean crossed = (i - row) * (i - kingTo) <= 0 || (i - rookRow) * (i - rookTo) <= 0;
+		  if (crossed && i != row && i != rookRow && s.getCell(i, col).getKind() != null){
+			  return 0;
+		  }
+	  }
+	  // without the rook, which might be shielding the king's way along the back rank
+	  State without = s;
+	  if (!isStandardCastling(row, rookRow)){
+		  without = new State(s);
+		  without.getCell(rookRow, col).PieceRemove();
+	  }
+	  for (int i = Math.min(row, kingTo); i <= Math.max(row, kingTo); i++){
+		  if (State.isUnderRiskOfCapture(without, Position.of(i, col), pc.getOpposite())){
+			  return 0;
+		  }
+	  }
+	  s.setCastlingStatus(true);
+	  return isStandardCastling(row, rookRow) ? bit(kingTo, col) : bit(rookRow, col);
+  }
+
+  /** whether it's castling as set up in the standard game, told by the king's two-square move */
+  private static boolean isStandardCastling(int kingRow, int rookRow){
+	  return kingRow == KINGROW && (rookRow == ROOKROWCLOSE || rookRow == ROOKROWFAR);
+  }
+
   /*an auxiliary function checking whether you can move a figure within particular offsets
-   *  - used for king and knight
+   *  - used for king and knight; with pc null the squares it attacks, whoever stands there
    */
-  private static List<Position> moveOffset(State s, Position starting, int[][] offsets, PlayerColor pc){
-	    List<Position> moves = new LinkedList<Position>();
-	    Position to;
+  private static long moveOffset(State s, int row, int col, int[][] offsets, PlayerColor pc){
+	    long moves = 0;
 	    for (int[] o : offsets) {
-	    	to = new Position (starting.getRow()+o[0], starting.getCol()+o[1]);
-	    	if (to.isInRange(0, BOARDLENGTH)){
-	    		if (s.getCell(starting.getRow()+o[0], starting.getCol()+o[1]).getColor()!=pc)
-	    			moves.add(to);
+	    	if (inRange(row+o[0], col+o[1]) && (pc == null || s.board[row+o[0]][col+o[1]].getColor()!=pc)){
+	    		moves |= bit(row+o[0], col+o[1]);
 	    	}
-	    };
+	    }
 		return moves;
   }
   /*an auxiliary function checking whether you can move a figure in a particular direction
-   * while not getting out of the board & not jumping over pieces - used for queen, rook, bishop
+   * while not getting out of the board & not jumping over pieces - used for queen, rook, bishop;
+   * with pc null the squares it attacks, up to and including the first piece whatever its color
    */
-  private static List<Position> moveLine(State s, Position starting, Direction dir, PlayerColor pc){
-	    List<Position> moves = new LinkedList<Position>();
-	    int i =0, j=0;
-		Position to;
-
+  private static long moveLine(State s, int row, int col, Direction dir, PlayerColor pc){
+	    long moves = 0;
+	    int i = row, j = col;
 		do {
-		    switch (dir.name().substring(0, 1)){
-	    		case "R" : {
-	    			i++;
-	    			break;
-	    		}
-	    		case "L": {
-	    			i--; 
-	    			break;
-	    		}
-		    }
-		    switch (dir.name().substring(dir.toString().length()-1, dir.toString().length())){
-		    	case "P" : {
-		    		j--;
-		    		break;
-		    	}
-		    	case "N": {
-		    		j++; 
-		    		break;
-		    	}
-		    }
-				to = new Position (starting.getRow()+i, starting.getCol()+j);
-				if (!to.isInRange(0, BOARDLENGTH))
-					break;
-				if (s.getCell(to.getRow(),to.getCol()).getColor()!=pc)
-					moves.add (to);
-			} while (s.getCell(to.getRow(),to.getCol()).getKind()==null);
+			i += dir.rowStep;
+			j += dir.colStep;
+			if (!inRange(i, j))
+				break;
+			if (pc == null || s.board[i][j].getColor()!=pc)
+				moves |= bit(i, j);
+		} while (s.board[i][j].getKind()==null);
 			
 		return moves;
   }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,78 @@
+package chess;
+
+import static chess.Bitboards.*;
+import static chess.Board.*;
+
+/**
+ * Static exchange evaluation: the material a capture wins once both sides have recaptured on its
+ * square for as long as it pays, each with its least valuable attacker, see
+ * https://www.chessprogramming.org/SEE_-_The_Swap_Algorithm .
+ * The attackers come from the bitboards of the {@link Board}; removing one from the occupancy
+ * uncovers the sliders behind it (x-rays). Pins and checks are not looked at.
+ */
+final class StaticExchange {
+
+	private StaticExchange(){}
+
+	/** more captures than there are pieces on the board can't happen */
+	static final int MAX_CAPTURES = 32;
+
+	/** @return the centipawns @param move wins (or loses, if negative) for the player to move */
+	static int evaluate(Board b, int move) {
+		return evaluate(b, move, new int[MAX_CAPTURES]);
+	}
+
+	/** @param gains - scratch space of at least MAX_CAPTURES */
+	static int evaluate(Board b, int move, int[] gains) {
+		int from = Moves.from(move), to = Moves.to(move);
+		long occ = b.occupied ^ (1L << from);
+		int onSquare = Evaluator.VALUES[b.mailbox[from] % 6];
+		if ((move & Moves.EN_PASSANT) != 0) {
+			occ ^= 1L << (b.side == WHITE ? to - 8 : to + 8);
+			gains[0] = Evaluator.VALUES[PAWN];
+		} else {
+			gains[0] = b.mailbox[to] == EMPTY ? 0 : Evaluator.VALUES[b.mailbox[to] % 6];
+		}
+		if (Moves.isPromotion(move)) {
+			onSquare = Evaluator.VALUES[Moves.promotion(move)];
+			gains[0] += onSquare - Evaluator.VALUES[PAWN];
+		}
+		long diagonal = b.pieces[BISHOP] | b.pieces[QUEEN] | b.pieces[6 + BISHOP] | b.pieces[6 + QUEEN];
+		long straight = b.pieces[ROOK] | b.pieces[QUEEN] | b.pieces[6 + ROOK] | b.pieces[6 + QUEEN];
+		long attackers = b.attackersTo(to, occ) & occ;
+		int side = b.side ^ 1;
+		int d = 0;
+		while (true) {
+			long own = attackers & b.colors[side];
+			if (own == 0) {
+				break;
+			}
+			int kind = PAWN;
+			while ((own & b.pieces[side * 6 + kind]) == 0) {
+				kind--;
+			}
+			// the king can only take the last defender
+			if (kind == KING && (attackers & b.colors[side ^ 1]) != 0) {
+				break;
+			}
+			d++;
+			// for the side taking now, if the other one stops then
+			gains[d] = onSquare - gains[d - 1];
+			occ ^= Long.lowestOneBit(own & b.pieces[side * 6 + kind]);
+			if (kind == PAWN || kind == BISHOP || kind == QUEEN) {
+				attackers |= bishopAttacks(to, occ) & diagonal;
+			}
+			if (kind == ROOK || kind == QUEEN) {
+				attackers |= rookAttacks(to, occ) & straight;
+			}
+			attackers &= occ;
+			onSquare = Evaluator.VALUES[kind];
+			side ^= 1;
+		}
+		// every side stops as soon as taking on doesn't pay
+		for (; d > 0; d--) {
+			gains[d - 1] = -Math.max(-gains[d - 1], gains[d]);
+		}
+		return gains[0];
+	}
+}
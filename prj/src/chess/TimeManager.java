@@ -0,0 +1,147 @@
+package chess;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time budget of one search.
+ *
+ * A clock budget has a soft limit, checked between iterations, and a hard one, at which a shared
+ * timer thread raises the {@link #stopped()} flag; the search only polls that volatile flag, so it
+ * never reads the clock or blocks in its inner loop. The soft limit stretches while the best move keeps
+ * changing or the score drops, and the search stops after its first iteration if there is only one
+ * legal move. A fixed budget (movetime, analysis) only has the hard limit.
+ */
+final class TimeManager {
+
+	/** the next iteration takes a few times the previous ones, don't start it past this share of the soft limit */
+	static final double NEXT_ITERATION_SHARE = 0.55;
+	/** moves left assumed when the clock doesn't say */
+	static final int DEFAULT_MOVES_TO_GO = 30;
+	/** the hard limit is this many soft limits at most */
+	static final int HARD_TO_SOFT = 4;
+	/** a drop of the score by this much (centipawns) since the last iteration buys more time */
+	static final int SCORE_DROP = 30;
+	static final double MAX_STRETCH = 3;
+
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "search-timer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private static final long NO_LIMIT = Long.MAX_VALUE;
+
+	private final long soft;
+	private final long hard;
+	private final boolean flexible;
+
+	private volatile boolean stopped;
+	private long start;
+	private ScheduledFuture<?> alarm;
+
+	private int lastBest;
+	private int lastScore;
+	private double changes;
+
+	private TimeManager(long soft, long hard, boolean flexible) {
+		this.soft = soft;
+		this.hard = hard;
+		this.flexible = flexible;
+	}
+
+	/** searches until stopped or out of depth */
+	static TimeManager unlimited() {
+		return new TimeManager(NO_LIMIT, NO_LIMIT, false);
+	}
+
+	/** searches for exactly @param nanos, unless stopped or out of depth first */
+	static TimeManager fixed(long nanos) {
+		return new TimeManager(nanos, nanos, false);
+	}
+
+	/**
+	 * the share of the clock for one move
+	 * @param time - milliseconds left on the clock of the player to move
+	 * @param increment - milliseconds added after every move
+	 * @param movesToGo - moves until the next time control, 0 if the rest of the game must be played in @param time
+	 * @param overhead - milliseconds kept back per move for the lag of the GUI
+	 */
+	static TimeManager forClock(long time, long increment, int movesToGo, long overhead) {
+		long usable = Math.max(1, time - overhead);
+		long soft, hard;
+		if (movesToGo == 1) {
+			soft = usable * 7 / 10;
+			hard = usable * 9 / 10;
+		} else {
+			int mtg = movesToGo > 0 ? Math.min(movesToGo, 50) : DEFAULT_MOVES_TO_GO;
+			soft = Math.min(usable / mtg + increment * 3 / 4, usable / 2);
+			hard = Math.min(soft * HARD_TO_SOFT, usable * 3 / 4);
+		}
+		soft = Math.max(1, soft);
+		return new TimeManager(TimeUnit.MILLISECONDS.toNanos(soft), TimeUnit.MILLISECONDS.toNanos(Math.max(soft, hard)), true);
+	}
+
+	void start() {
+		start = System.nanoTime();
+		stopped = false;
+		changes = 0;
+		if (hard != NO_LIMIT) {
+			alarm = TIMER.schedule(new Runnable() {
+				@Override
+				public void run() {
+					stopped = true;
+				}
+			}, hard, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	void finish() {
+		if (alarm != null) {
+			alarm.cancel(false);
+			alarm = null;
+		}
+	}
+
+	boolean stopped() {
+		return stopped;
+	}
+
+	long elapsedNanos() {
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * to be called after every complete iteration
+	 * @param rootMoves - the number of legal moves at the root
+	 * @return whether to start the next one
+	 */
+	boolean nextIteration(int depth, int bestMove, int score, int rootMoves) {
+		if (stopped) {
+			return false;
+		}
+		if (!flexible) {
+			return true;
+		}
+		if (rootMoves == 1) {
+			return false;
+		}
+		double stretch = 1;
+		if (depth > 1) {
+			changes = changes / 2 + (bestMove != lastBest ? 1 : 0);
+			stretch += changes;
+			if (score < lastScore - SCORE_DROP) {
+				stretch += 0.5;
+			}
+		}
+		lastBest = bestMove;
+		lastScore = score;
+		return elapsedNanos() < soft * Math.min(stretch, MAX_STRETCH) * NEXT_ITERATION_SHARE;
+	}
+}
@@ -0,0 +1,114 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * Hash table of search results shared by all the search threads, indexed by {@link Board#hash}.
+ *
+ * An entry is two longs, the key xor-ed with the data and the data, so that an entry torn by two
+ * threads writing it at once fails the key check instead of being read with the wrong data;
+ * no locks are taken. One entry per slot, replaced unless it holds a deeper result of the same search.
+ */
+final class TranspositionTable {
+
+	static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+	private static final int ENTRY_BYTES = 16;
+
+	private final long[] table;
+	private final int mask;
+	private volatile int generation;
+
+	/** a table of at most @param megabytes, rounded down to a power of two entries */
+	TranspositionTable(int megabytes) {
+		long entries = Long.highestOneBit(Math.max(1L, (long) megabytes * 1024 * 1024 / ENTRY_BYTES));
+		entries = Math.min(entries, 1L << 28);
+		table = new long[(int) entries * 2];
+		mask = (int) entries - 1;
+	}
+
+	int megabytes() {
+		return (int) ((long) table.length * 8 / (1024 * 1024));
+	}
+
+	void clear() {
+		Arrays.fill(table, 0);
+		generation = 0;
+	}
+
+	/** marks the entries written from now on as the newer ones, to be called before every search */
+	void newSearch() {
+		generation = (generation + 1) & 0xFF;
+	}
+
+	// data: move (19 bits) | score + 32768 (16) | depth (8) | bound (2) | generation (8)
+
+	/** @return the entry's data for @param hash, 0 if there is none */
+	long probe(long hash) {
+		int i = ((int) hash & mask) << 1;
+		long data = table[i + 1];
+		return (table[i] ^ data) == hash ? data : 0;
+	}
+
+	/**
+	 * stores the result of a search of @param depth plies at @param ply from the root,
+	 * mate scores being stored relative to the position
+	 */
+	void store(long hash, int move, int score, int depth, int bound, int ply) {
+		int i = ((int) hash & mask) << 1;
+		long old = table[i + 1];
+		boolean same = (table[i] ^ old) == hash;
+		if (same && generation(old) == generation && depth(old) > depth && bound != EXACT) {
+			return;
+		}
+		if (move == 0 && same) {
+			move = move(old);
+		}
+		if (score >= Search.MATE_BOUND) {
+			score += ply;
+		} else if (score <= -Search.MATE_BOUND) {
+			score -= ply;
+		}
+		long data = (move & 0x7FFFFL) | ((long) (score + 32768) << 19) | ((long) Math.max(0, Math.min(depth, 255)) << 35)
+				| ((long) bound << 43) | ((long) generation << 45);
+		table[i] = hash ^ data;
+		table[i + 1] = data;
+	}
+
+	static int move(long data) {
+		return (int) (data & 0x7FFFF);
+	}
+
+	/** @return the score stored in @param data, mates relative to the root from @param ply */
+	static int score(long data, int ply) {
+		int score = (int) ((data >>> 19) & 0xFFFF) - 32768;
+		if (score >= Search.MATE_BOUND) {
+			return score - ply;
+		}
+		return score <= -Search.MATE_BOUND ? score + ply : score;
+	}
+
+	static int depth(long data) {
+		return (int) (data >>> 35) & 0xFF;
+	}
+
+	static int bound(long data) {
+		return (int) (data >>> 43) & 3;
+	}
+
+	private static int generation(long data) {
+		return (int) (data >>> 45) & 0xFF;
+	}
+
+	/** @return how full the table is in permille, from a sample of its first entries, as UCI hashfull */
+	int hashfull() {
+		int n = Math.min(1000, mask + 1), used = 0;
+		for (int i = 0; i < n; i++) {
+			long data = table[2 * i + 1];
+			if (data != 0 && generation(data) == generation) {
+				used++;
+			}
+		}
+		return used * 1000 / n;
+	}
+}
@@ -0,0 +1,333 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import games.IllegalMoveException;
+
+/**
+ * Universal Chess Interface front-end: http://wbec-ridderkerk.nl/html/UCIProtocol.html
+ * Plays by the rules of {@link State} with {@link Search}; with Threads above 1 every thread
+ * searches the same position sharing one {@link TranspositionTable} and the first thread's result is played.
+ * The threads are those of a {@link SearchPool}, started with the option and kept from one go to the next.
+ * With UCI_Chess960 castling is sent as the king taking its rook; either form is understood, and so are
+ * the castling files of X-FEN and Shredder-FEN, whatever the option.
+ *
+ * usage: java chess.Uci, then UCI commands on the standard input
+ */
+public final class Uci {
+
+	static final String NAME = "chess";
+	static final int MAX_HASH = 4096, MAX_THREADS = 64, MAX_MULTIPV = 64;
+	/** time kept back for the GUI and the lag of every move */
+	static final long MOVE_OVERHEAD = 30;
+
+	private final BufferedReader in;
+	private final PrintStream out;
+
+	private Board position = Fen.toBoard(Fen.STARTPOS);
+	/** hashes of the positions played before the current one */
+	private long[] history = new long[256];
+	private int historyLength;
+
+	private TranspositionTable tt = new TranspositionTable(16);
+	private int threads = 1;
+	private int multiPv = 1;
+	/** castling is written as the king taking its rook */
+	private boolean chess960;
+
+	private SearchPool pool = new SearchPool(1);
+	private Future<?> running;
+	private Search[] searches;
+	private CountDownLatch stopped;
+
+	Uci(InputStream in, PrintStream out) {
+		this.in = new BufferedReader(new InputStreamReader(in));
+		this.out = out;
+	}
+
+	public static void main(String[] args) throws IOException {
+		new Uci(System.in, System.out).loop();
+	}
+
+	void loop() throws IOException {
+		for (String line; (line = in.readLine()) != null;) {
+			String[] tokens = line.trim().split("\\s+");
+			try {
+				switch (tokens[0]) {
+					case "uci":
+						send("id name " + NAME);
+						send("id author " + NAME + " authors");
+						send("option name Hash type spin default 16 min 1 max " + MAX_HASH);
+						send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+						send("option name MultiPV type spin default 1 min 1 max " + MAX_MULTIPV);
+						send("option name Clear Hash type button");
+						send("option name UCI_Chess960 type check default false");
+						send("uciok");
+						break;
+					case "isready":
+						send("readyok");
+						break;
+					case "setoption":
+						stop();
+						setOption(line);
+						break;
+					case "ucinewgame":
+						stop();
+						tt.clear();
+						break;
+					case "position":
+						stop();
+						position(tokens);
+						break;
+					case "go":
+						stop();
+						go(tokens);
+						break;
+					case "stop":
+						stop();
+						break;
+					case "quit":
+						stop();
+						return;
+					default:
+						// debug, register, ponderhit and unknown commands are ignored
+						break;
+				}
+			} catch (RuntimeException e) {
+				send("info string " + e.getMessage());
+			}
+		}
+		stop();
+		pool.shutdown();
+	}
+
+	private void send(String s) {
+		synchronized (out) {
+			out.println(s);
+			out.flush();
+		}
+	}
+
+	private void setOption(String line) {
+		int n = line.indexOf(" name "), v = line.indexOf(" value ");
+		if (n < 0) {
+			return;
+		}
+		String name = (v < 0 ? line.substring(n + 6) : line.substring(n + 6, v)).trim();
+		String value = v < 0 ? "" : line.substring(v + 7).trim();
+		switch (name.toLowerCase()) {
+			case "hash":
+				tt = new TranspositionTable(clamp(Integer.parseInt(value), 1, MAX_HASH));
+				break;
+			case "threads":
+				threads = clamp(Integer.parseInt(value), 1, MAX_THREADS);
+				if (threads != pool.size()) {
+					pool.shutdown();
+					pool = new SearchPool(threads);
+				}
+				break;
+			case "multipv":
+				multiPv = clamp(Integer.parseInt(value), 1, MAX_MULTIPV);
+				break;
+			case "clear hash":
+				tt.clear();
+				break;
+			case "uci_chess960":
+				chess960 = Boolean.parseBoolean(value);
+				break;
+			default:
+				send("info string unknown option " + name);
+		}
+	}
+
+	private static int clamp(int v, int min, int max) {
+		return Math.max(min, Math.min(max, v));
+	}
+
+	/** position startpos|fen &lt;fen&gt; [moves m1 m2 ...] */
+	private void position(String[] tokens) {
+		int i = 1;
+		Board b;
+		if (tokens.length > 1 && tokens[1].equals("startpos")) {
+			b = Fen.toBoard(Fen.STARTPOS);
+			i = 2;
+		} else if (tokens.length > 1 && tokens[1].equals("fen")) {
+			StringBuilder fen = new StringBuilder();
+			for (i = 2; i < tokens.length && !tokens[i].equals("moves"); i++) {
+				fen.append(tokens[i]).append(' ');
+			}
+			b = Fen.toBoard(fen.toString());
+		} else {
+			throw new IllegalArgumentException("position needs startpos or fen");
+		}
+		position = b;
+		historyLength = 0;
+		if (i < tokens.length && tokens[i].equals("moves")) {
+			MoveList legal = new MoveList();
+			for (i++; i < tokens.length; i++) {
+				int m;
+				try {
+					m = MoveGenerator.parse(b, legal, tokens[i]);
+				} catch (IllegalMoveException e) {
+					send("info string " + e.getMessage() + ", ignoring the moves from it on");
+					return;
+				}
+				if (historyLength == history.length) {
+					history = Arrays.copyOf(history, history.length * 2);
+				}
+				history[historyLength++] = b.hash;
+				b.make(m);
+			}
+		}
+	}
+
+	/**
+	 * go [wtime t] [btime t] [winc t] [binc t] [movestogo n] [depth d] [nodes n] [movetime t] [infinite];
+	 * the search reports its move only once stopped after infinite, or after a go without any of the others
+	 */
+	private void go(String[] tokens) {
+		long time = -1, inc = 0, moveTime = -1, nodes = 0;
+		int movesToGo = 0, depth = Search.MAX_PLY - 1;
+		boolean infinite = false, limited = false;
+		boolean white = position.side == Board.WHITE;
+		for (int i = 1; i < tokens.length; i++) {
+			String arg = i + 1 < tokens.length ? tokens[i + 1] : "0";
+			switch (tokens[i]) {
+				case "wtime":
+					if (white) time = Long.parseLong(arg);
+					break;
+				case "btime":
+					if (!white) time = Long.parseLong(arg);
+					break;
+				case "winc":
+					if (white) inc = Long.parseLong(arg);
+					break;
+				case "binc":
+					if (!white) inc = Long.parseLong(arg);
+					break;
+				case "movestogo":
+					movesToGo = Integer.parseInt(arg);
+					break;
+				case "depth":
+					depth = clamp(Integer.parseInt(arg), 1, Search.MAX_PLY - 1);
+					break;
+				case "nodes":
+					nodes = Long.parseLong(arg);
+					break;
+				case "movetime":
+					moveTime = Long.parseLong(arg);
+					break;
+				case "infinite":
+					infinite = true;
+					continue;
+				default:
+					continue;
+			}
+			limited = true;
+			i++;
+		}
+		TimeManager clock = TimeManager.unlimited();
+		if (moveTime >= 0) {
+			clock = TimeManager.fixed(TimeUnit.MILLISECONDS.toNanos(Math.max(1, moveTime - MOVE_OVERHEAD)));
+		} else if (time >= 0) {
+			clock = TimeManager.forClock(time, inc, movesToGo, MOVE_OVERHEAD);
+		} else if (inc > 0) {
+			// increments without the time left: spend what every move brings
+			clock = TimeManager.fixed(TimeUnit.MILLISECONDS.toNanos(Math.max(1, inc - MOVE_OVERHEAD)));
+		}
+		start(depth, clock, nodes, infinite || !limited);
+	}
+
+	private void start(final int depth, final TimeManager clock, final long nodes, final boolean infinite) {
+		final Search[] s = new Search[threads];
+		for (int i = 0; i < s.length; i++) {
+			s[i] = new Search(position, history, historyLength, tt);
+			s[i].limitNodes(nodes);
+		}
+		tt.newSearch();
+		final CountDownLatch stop = new CountDownLatch(1);
+		searches = s;
+		stopped = stop;
+		running = pool.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				Search.Line[] lines = pool.search(s, depth, clock, multiPv, new Search.Listener() {
+					@Override
+					public void iteration(int depth, Search.Line[] lines, long nodes, long nanos) {
+						info(s, depth, lines, nanos);
+					}
+				});
+				// a search without limits reports its move only when told to stop
+				if (infinite) {
+					try {
+						stop.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				if (lines == null || lines.length == 0) {
+					send("bestmove 0000");
+				} else {
+					int[] pv = lines[0].pv;
+					send("bestmove " + Moves.toString(pv[0], chess960)
+							+ (pv.length > 1 ? " ponder " + Moves.toString(pv[1], chess960) : ""));
+				}
+				return null;
+			}
+		});
+	}
+
+	private void info(Search[] s, int depth, Search.Line[] lines, long nanos) {
+		long nodes = 0;
+		for (Search search : s) {
+			nodes += search.nodes();
+		}
+		long millis = nanos / 1000000;
+		long nps = nanos > 0 ? nodes * 1000000000L / nanos : 0;
+		for (int i = 0; i < lines.length; i++) {
+			StringBuilder res = new StringBuilder("info depth ").append(depth).append(" multipv ").append(i + 1);
+			int score = lines[i].score;
+			if (Math.abs(score) >= Search.MATE_BOUND) {
+				int moves = (Search.MATE - Math.abs(score) + 1) / 2;
+				res.append(" score mate ").append(score > 0 ? moves : -moves);
+			} else {
+				res.append(" score cp ").append(score);
+			}
+			res.append(" nodes ").append(nodes).append(" nps ").append(nps).append(" hashfull ").append(tt.hashfull())
+					.append(" time ").append(millis).append(" pv");
+			for (int m : lines[i].pv) {
+				res.append(' ').append(Moves.toString(m, chess960));
+			}
+			send(res.toString());
+		}
+	}
+
+	/** stops the running search, if any, and waits for its bestmove */
+	private void stop() {
+		if (running == null) {
+			return;
+		}
+		for (Search s : searches) {
+			s.stop();
+		}
+		stopped.countDown();
+		try {
+			running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			send("info string search failed: " + e.getCause());
+		}
+		running = null;
+	}
+}
@@ -0,0 +1,42 @@
+package chess;
+
+/**
+ * Random keys for hashing a {@link Board} (https://www.chessprogramming.org/Zobrist_Hashing).
+ * The keys come from a fixed seed so that a position hashes the same in every run,
+ * which the files written with these hashes rely on.
+ */
+final class Zobrist {
+
+	private Zobrist(){}
+
+	/** [color * 6 + kind][square] */
+	static final long[][] PIECES = new long[12][64];
+	static final long[] CASTLING = new long[16];
+	static final long[] EN_PASSANT_FILE = new long[8];
+	static final long BLACK_TO_MOVE;
+
+	private static long state = 0x2545F4914F6CDD1DL;
+
+	static {
+		for (int p = 0; p < 12; p++) {
+			for (int sq = 0; sq < 64; sq++) {
+				PIECES[p][sq] = next();
+			}
+		}
+		for (int i = 0; i < CASTLING.length; i++) {
+			CASTLING[i] = next();
+		}
+		for (int f = 0; f < 8; f++) {
+			EN_PASSANT_FILE[f] = next();
+		}
+		BLACK_TO_MOVE = next();
+	}
+
+	// splitmix64: the state advances by the golden gamma, the output is the mixed state
+	private static long next() {
+		long z = state += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -3,14 +3,32 @@ package games;
 
 public class Position {
 
-	 private int row;
-	 private int col;
+	 private static final int INTERNED = 8;
+	 private static final Position[] SQUARES = new Position[INTERNED * INTERNED];
+
+	 static {
+		 for (int row = 0; row < INTERNED; row++) {
+			 for (int col = 0; col < INTERNED; col++) {
+				 SQUARES[row * INTERNED + col] = new Position(row, col);
+			 }
+		 }
+	 }
+
+	 private final int row;
+	 private final int col;
 
      public Position(int row, int col) {
 	 this.row = row;
 	 this.col = col;
 	}
 
+	/**
+	 * @return the shared instance for the 64 squares of an 8x8 board, a new one outside of it
+	 */
+	public static Position of(int row, int col) {
+		return row >= 0 && row < INTERNED && col >= 0 && col < INTERNED ? SQUARES[row * INTERNED + col] : new Position(row, col);
+	}
+
 	public int getRow() {
 		return row;
 	}
@@ -35,4 +53,9 @@ public class Position {
 	public boolean equals(Object o) {
 	    return o instanceof Position && this.getRow() == ((Position) o).getRow() && this.getCol() == ((Position) o).getCol();
 	}
-}
\ No newline at end of file
+
+	@Override
+	public int hashCode() {
+		return 31 * row + col;
+	}
+}